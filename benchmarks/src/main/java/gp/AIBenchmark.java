@@ -0,0 +1,106 @@
+package gp;
+
+import gp.ai.*;
+import gp.model.CreatedPlayerNotification;
+import gp.model.GameState;
+import gp.model.Moves;
+import gp.model.Weather;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gear and move selection of the AIs from evenly spaced nodes of the track with opponents
+ * in the starting grid. Every start node has its own AI instance, which has already
+ * selected a gear for that position when selectMove is measured. Scores are per invocation
+ * over the start nodes where the AI succeeds, selectMove skips the ones without valid moves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AIBenchmark {
+    @Param({ "BEGINNER", "AMATEUR", "PRO" })
+    public String ai;
+
+    @Param({ "monaco", "monza", "spa", "suzuka" })
+    public String track;
+
+    @Param({ "1", "2", "3", "4", "5", "6" })
+    public int gear;
+
+    @Param({ "MIN", "MAX" })
+    public String roll;
+
+    @Param({ "3", "18" })
+    public int hitpoints;
+
+    private final List<AI> ais = new ArrayList<>();
+    private final List<GameState> gameStates = new ArrayList<>();
+    // AIs and their moves for start nodes which have at least one valid move
+    private final List<AI> movingAis = new ArrayList<>();
+    private final List<Moves> moves = new ArrayList<>();
+
+    private static BaseAI createAI(AI.Type type, TrackData data) {
+        switch (type) {
+            case BEGINNER: return new BeginnerAI(data);
+            case AMATEUR: return new AmateurAI(data);
+            case PRO: return new ProAI(data);
+            default: throw new IllegalArgumentException("Unsupported AI type: " + type);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        final TrackData data = BenchmarkTrack.load(track);
+        final int rollValue = BenchmarkTrack.getRoll(roll, gear);
+        final List<LocalPlayer> opponents = BenchmarkTrack.createOpponents(data);
+        final List<Node> samples = BenchmarkTrack.getSamples(data);
+        for (int i = 0; i < samples.size(); ++i) {
+            final Node node = samples.get(i);
+            final LocalPlayer player = BenchmarkTrack.createPlayer(node, gear, hitpoints);
+            final List<LocalPlayer> players = new ArrayList<>(opponents);
+            players.add(0, player);
+            final BaseAI ai = createAI(AI.Type.valueOf(this.ai), data);
+            ai.setRandom(new Random(i));
+            ai.notify(new CreatedPlayerNotification("p1", "p1", node.getId(), 18, BenchmarkTrack.LAPS, null, 0, null).controlled(true));
+            final GameState gameState = ApiHelper.buildGameState(data.getTrackId(), players);
+            final Moves allMoves = player.findAllTargets(rollValue, data.getTrackId(), players, Weather.DRY, BenchmarkTrack.LAPS);
+            try {
+                ai.init(gameState, gear, null);
+                if (!allMoves.getMoves().isEmpty()) {
+                    ai.selectMove(allMoves);
+                }
+            } catch (RuntimeException e) {
+                // Engine falls back to defaults if AI fails, which can happen in states which are rare in races
+                continue;
+            }
+            ais.add(ai);
+            gameStates.add(gameState);
+            if (!allMoves.getMoves().isEmpty()) {
+                movingAis.add(ai);
+                moves.add(allMoves);
+            }
+        }
+    }
+
+    @Benchmark
+    public void selectGear(Blackhole blackhole) {
+        for (int i = 0; i < ais.size(); ++i) {
+            blackhole.consume(ais.get(i).selectGear(gameStates.get(i)));
+        }
+    }
+
+    @Benchmark
+    public void selectMove(Blackhole blackhole) {
+        for (int i = 0; i < movingAis.size(); ++i) {
+            blackhole.consume(movingAis.get(i).selectMove(moves.get(i)));
+        }
+    }
+}
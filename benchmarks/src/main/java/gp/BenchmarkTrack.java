@@ -0,0 +1,99 @@
+package gp;
+
+import gp.ai.Gear;
+import gp.ai.Node;
+import gp.ai.TrackData;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Track loading and start positions shared by the benchmarks. Tracks are read from
+ * the directory given with -Dgp.tracks, by default tracks of the working directory
+ * or its parent, so the benchmarks can be run from the repository root or this module.
+ */
+final class BenchmarkTrack {
+    static final int PLAYER_COUNT = 6;
+    static final int SAMPLE_COUNT = 16;
+    static final int LAPS = 2;
+    private static final int[] COLORS = { Main.defaultColor1, Main.defaultColor2, Main.defaultColor1, 0x000000 };
+
+    private BenchmarkTrack() {
+    }
+
+    static String getPath(String track) {
+        final String directory = System.getProperty("gp.tracks");
+        if (directory != null) {
+            return new File(directory, track + ".dat").getPath();
+        }
+        final File file = new File("tracks", track + ".dat");
+        return file.exists() ? file.getPath() : new File("../tracks", track + ".dat").getPath();
+    }
+
+    static TrackData load(String track) {
+        // AIs log every decision, which would measure mostly the file handler
+        Main.log.setLevel(Level.WARNING);
+        final TrackData data = TrackData.createTrackData(getPath(track), true);
+        if (data == null) {
+            throw new RuntimeException("Unable to load track " + getPath(track));
+        }
+        return data;
+    }
+
+    /**
+     * Returns evenly spaced nodes along the track, excluding pit lane and the starting
+     * grid which is occupied by opponents.
+     */
+    static List<Node> getSamples(TrackData data) {
+        final Set<Node> grid = new HashSet<>(data.getStartingGrid(PLAYER_COUNT - 1));
+        final List<Node> candidates = new ArrayList<>();
+        for (Node node : data.getNodes()) {
+            if (!node.isPit() && !grid.contains(node)) {
+                candidates.add(node);
+            }
+        }
+        final List<Node> samples = new ArrayList<>(SAMPLE_COUNT);
+        for (int i = 0; i < SAMPLE_COUNT; ++i) {
+            samples.add(candidates.get(i * candidates.size() / SAMPLE_COUNT));
+        }
+        return samples;
+    }
+
+    /**
+     * Creates opponents to the starting grid, so that searches have blocked nodes like in races.
+     */
+    static List<LocalPlayer> createOpponents(TrackData data) {
+        final List<Node> grid = data.getStartingGrid(PLAYER_COUNT - 1);
+        final List<LocalPlayer> opponents = new ArrayList<>(grid.size());
+        for (int i = 0; i < grid.size(); ++i) {
+            final Node node = grid.get(i);
+            opponents.add(new LocalPlayer("p" + (i + 2), node, node.getGridAngle(), LAPS, null, 0, 18, null, COLORS));
+        }
+        return opponents;
+    }
+
+    /**
+     * Creates the measured player to the given node on its second lap, so that pit lane is open.
+     */
+    static LocalPlayer createPlayer(Node node, int gear, int hitpoints) {
+        final LocalPlayer player = new LocalPlayer("p1", node, 0, LAPS - 1, null, 0, 18, null, COLORS);
+        player.setGear(gear);
+        player.setHitpoints(hitpoints);
+        return player;
+    }
+
+    /**
+     * Returns the smallest or the largest roll of the given gear.
+     */
+    static int getRoll(String roll, int gear) {
+        switch (roll) {
+            case "MIN": return Gear.getMin(gear);
+            case "MAX": return Gear.getMax(gear);
+            default: throw new IllegalArgumentException("Unsupported roll: " + roll);
+        }
+    }
+}
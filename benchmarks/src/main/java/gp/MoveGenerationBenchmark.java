@@ -0,0 +1,80 @@
+package gp;
+
+import gp.ai.Node;
+import gp.ai.TrackData;
+import gp.model.Weather;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Move generation from evenly spaced nodes of the track with opponents in the starting grid.
+ * Scores are per start node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveGenerationBenchmark {
+    @Param({ "monaco", "monza", "spa", "suzuka" })
+    public String track;
+
+    @Param({ "1", "2", "3", "4", "5", "6" })
+    public int gear;
+
+    @Param({ "MIN", "MAX" })
+    public String roll;
+
+    @Param({ "3", "18" })
+    public int hitpoints;
+
+    private TrackData data;
+    private int rollValue;
+    private List<Node> samples;
+    private Set<Node> forbiddenNodes;
+    private List<LocalPlayer> players;
+    private List<List<LocalPlayer>> playerLists;
+
+    @Setup
+    public void setup() {
+        data = BenchmarkTrack.load(track);
+        rollValue = BenchmarkTrack.getRoll(roll, gear);
+        samples = BenchmarkTrack.getSamples(data);
+        final List<LocalPlayer> opponents = BenchmarkTrack.createOpponents(data);
+        forbiddenNodes = new HashSet<>(data.getStartingGrid(BenchmarkTrack.PLAYER_COUNT - 1));
+        players = new ArrayList<>(samples.size());
+        playerLists = new ArrayList<>(samples.size());
+        for (Node node : samples) {
+            final LocalPlayer player = BenchmarkTrack.createPlayer(node, gear, hitpoints);
+            final List<LocalPlayer> all = new ArrayList<>(opponents);
+            all.add(player);
+            players.add(player);
+            playerLists.add(all);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkTrack.SAMPLE_COUNT)
+    public void findTargetNodes(Blackhole blackhole) {
+        for (int i = 0; i < BenchmarkTrack.SAMPLE_COUNT; ++i) {
+            final Node node = samples.get(i);
+            final int stops = node.isCurve() ? node.getStopCount() : 0;
+            blackhole.consume(NodeUtil.findTargetNodes(node, gear, rollValue, hitpoints, stops, BenchmarkTrack.LAPS - 1, forbiddenNodes, false));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkTrack.SAMPLE_COUNT)
+    public void findAllTargets(Blackhole blackhole) {
+        for (int i = 0; i < BenchmarkTrack.SAMPLE_COUNT; ++i) {
+            blackhole.consume(players.get(i).findAllTargets(rollValue, data.getTrackId(), playerLists.get(i), Weather.DRY, BenchmarkTrack.LAPS));
+        }
+    }
+}
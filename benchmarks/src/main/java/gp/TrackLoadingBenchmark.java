@@ -0,0 +1,125 @@
+package gp;
+
+import gp.ai.Node;
+import gp.ai.TrackData;
+import gp.model.Weather;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading of every bundled track, both when the track is built from the track file and when it
+ * has been compiled before, and building of the collision map separately. Compiled tracks are
+ * written to a temporary directory, so that earlier runs do not affect the results.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TrackLoadingBenchmark {
+
+    static {
+        // Must be set before TrackData is initialized
+        try {
+            final File cacheDirectory = Files.createTempDirectory("trackcache").toFile();
+            cacheDirectory.deleteOnExit();
+            System.setProperty("gp.trackcache", cacheDirectory.getPath());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Param({
+            "algarve", "austin", "austria", "bahrain", "baku", "barcelona", "brasil", "budapest",
+            "france", "hockenheimD", "hockenheimOLD", "india", "indianapolis", "indianapolisOVAL",
+            "istanbul", "korea", "melbourne", "mexico", "minikart", "monaco", "montreal", "monza",
+            "mugello", "newjersey", "nurburgring", "paulricard", "portugal", "sanmarino", "sebring",
+            "sepang", "shanghai", "silverstone", "singaporeD", "sochi", "spa", "suzuka", "valenciaD",
+            "yasmarina", "zanvoordt"
+    })
+    public String track;
+
+    private String path;
+    private List<Node> nodes;
+    private int laneCount;
+
+    @Setup
+    public void setup() throws IOException {
+        path = BenchmarkTrack.getPath(track);
+        nodes = new ArrayList<>();
+        final Map<Node, Double> attributes = new HashMap<>();
+        try (InputStream is = new FileInputStream(path)) {
+            if (MapEditor.loadNodes(is, nodes, attributes, new Weather.Params()) == null) {
+                throw new RuntimeException("Unable to load track " + path);
+            }
+        }
+        laneCount = TrackData.build(nodes, attributes, null);
+        if (!TrackData.cacheDirectory.getPath().equals(System.getProperty("gp.trackcache"))) {
+            throw new IllegalStateException("TrackData was initialized before the cache directory was set");
+        }
+        // Compiles the track for the compiled benchmark
+        if (TrackData.createTrackData(path, true) == null) {
+            throw new RuntimeException("Unable to load track " + path);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        clearCache();
+    }
+
+    private static void clearCache() {
+        final File[] files = TrackData.cacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    throw new RuntimeException("Unable to remove " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the compiled track before every invocation of the cold benchmark.
+     */
+    @State(Scope.Thread)
+    public static class ColdCache {
+        @Setup(Level.Invocation)
+        public void setup() {
+            clearCache();
+        }
+    }
+
+    /**
+     * Parses the track file, builds the track and stores the compiled track.
+     */
+    @Benchmark
+    public TrackData createTrackDataCold(ColdCache cache) {
+        return TrackData.createTrackData(path, true);
+    }
+
+    /**
+     * Loads the compiled track.
+     */
+    @Benchmark
+    public TrackData createTrackDataCompiled() {
+        return TrackData.createTrackData(path, true);
+    }
+
+    @Benchmark
+    public Map<Node, Set<Node>> buildCollisionMap() {
+        return TrackLanes.buildCollisionMap(nodes, laneCount);
+    }
+}
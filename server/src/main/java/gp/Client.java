@@ -14,8 +14,7 @@ import java.util.stream.Collectors;
 
 public class Client extends Game implements Runnable {
     private final Socket socket;
-    private final ObjectOutputStream oos;
-    private final ObjectInputStream ois;
+    private final Connection connection;
     private AI ai;
     private Player current;
     private Player controlledPlayer;
@@ -24,12 +23,12 @@ public class Client extends Game implements Runnable {
     private boolean initialStandingsReceived;
     private boolean waiting;
 
-    public Client(JFrame frame, Socket socket, JPanel panel, Profile profile) throws IOException {
+    public Client(JFrame frame, Socket socket, String gameId, JPanel panel, Profile profile) throws IOException {
         super(frame, panel);
         this.profile = profile;
         this.socket = socket;
-        oos = new ObjectOutputStream(socket.getOutputStream());
-        ois = new ObjectInputStream(socket.getInputStream()); // This may block if connection cannot be established!
+        connection = Connection.connect(socket, gameId); // This may block if connection cannot be established!
+        connection.startKeepAlive();
         setPreferredSize(new Dimension(400, 200));
     }
 
@@ -37,7 +36,7 @@ public class Client extends Game implements Runnable {
     public void run() {
         while (socket.isConnected()) {
             try {
-                Object request = ois.readObject();
+                Object request = connection.receive();
                 if (request instanceof Notification) {
                     ((Notification) request).notify(this);
                 } else if (request instanceof Standings) {
@@ -50,7 +49,6 @@ public class Client extends Game implements Runnable {
                     final FinalStandings standings = (FinalStandings) request;
                     if (!initialStandingsReceived) {
                         profile.standingsReceived(standings.getStats(), data.getTrackId(), standings.isSingleRace(), weatherForecast != null);
-                        profile.getManager().saveProfiles();
                         initialStandingsReceived = true;
                         immutablePlayerMap = new HashMap<>(playerMap);
                         this.standings = Arrays.stream(standings.getStats()).map(ps -> ps.playerId).map(immutablePlayerMap::get).collect(Collectors.toList());
@@ -60,7 +58,6 @@ public class Client extends Game implements Runnable {
                     }
                     finalStandings = standings.getStats();
                     profile.standingsReceived(finalStandings, null, standings.isSingleRace(), weatherForecast != null);
-                    profile.getManager().saveProfiles();
                     repaint();
                     break;
                 } else {
@@ -70,11 +67,11 @@ public class Client extends Game implements Runnable {
                             roll = null;
                             setCurrent(controlledPlayer);
                             repaint();
-                            oos.writeObject(ai.selectGear(gameState));
+                            connection.send(ai.selectGear(gameState));
                             updateHitpointMap(gameState);
                         } else if (request instanceof Moves) {
                             final Moves moves = (Moves) request;
-                            oos.writeObject(ai.selectMove(moves));
+                            connection.send(ai.selectMove(moves));
                         } else if (request instanceof TrackData) {
                             try {
                                 waiting = true;
@@ -88,7 +85,7 @@ public class Client extends Game implements Runnable {
                                 exit();
                                 return;
                             }
-                            oos.writeObject(new ProfileMessage(profile));
+                            connection.send(new ProfileMessage(profile));
                         } else if (request instanceof Kick) {
                             JOptionPane.showConfirmDialog(this, "You have been kicked", "Oops", JOptionPane.DEFAULT_OPTION);
                             exit();
@@ -100,7 +97,8 @@ public class Client extends Game implements Runnable {
                     }
                 }
             } catch (EOFException e) {
-                // This is ok, no objects to read
+                Main.log.info("Server closed the connection");
+                break;
             } catch (IOException | ClassNotFoundException e) {
                 Main.log.log(Level.SEVERE, "Error when reading object input from server", e);
                 break;
@@ -120,17 +118,7 @@ public class Client extends Game implements Runnable {
     @Override
     protected void exit() {
         try {
-            ois.close();
-        } catch (IOException e) {
-            Main.log.log(Level.WARNING, "Error when closing server connection", e);
-        }
-        try {
-            oos.close();
-        } catch (IOException e) {
-            Main.log.log(Level.WARNING, "Error when closing server connection", e);
-        }
-        try {
-            socket.close();
+            connection.close();
         } catch (IOException e) {
             Main.log.log(Level.WARNING, "Error when closing server connection", e);
         }
@@ -0,0 +1,397 @@
+package gp;
+
+import gp.ai.TrackData;
+import gp.model.GameState;
+import gp.model.Gear;
+import gp.model.Notification;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Message stream between the server (RemoteAI) and a client (Client).
+ *
+ * Clients open the connection with a hello consisting of magic bytes and the highest protocol
+ * version they support, and the server answers with the version which is used. Peers which do not
+ * send the hello are served with Java serialization, like before the binary protocol existed.
+ * Clients connecting to such servers can use serialization with -Dgp.serialization=true.
+ * From version 2 on, the client then sends the id of the game it wants to join, which may be empty.
+ * From version 3 on, track data is offered by its hash, and clients download only the tracks
+ * which are missing from their TrackCache.
+ *
+ * State which the streams keep between messages is released at turn boundaries, which are
+ * the game state sent to a player and the gear sent back. Java serialization keeps a reference
+ * to every object written until the stream is reset, and the binary codecs keep buffers sized
+ * for the largest message, such as track data.
+ *
+ * Idle connections send keep-alives, empty notifications which older peers ignore. Binary
+ * peers always send them, so a binary connection which receives nothing in a while is lost.
+ */
+abstract class Connection {
+    private static final byte[] MAGIC = { 'G', 'P', 'W' };
+    static final int VERSION = 3;
+    private static final int maxGameIdLength = 256;
+    private static final int keepAliveIntervalMs = 5000;
+    private static final int keepAliveTimeoutMs = 4 * keepAliveIntervalMs;
+    private static final Notification keepAlive = new Notification("");
+    private static final ScheduledExecutorService keepAlives = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "Keep-alive");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    final Socket socket;
+    String gameId;
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private volatile long sentBytes;
+    private volatile long lastSent = System.currentTimeMillis();
+    private volatile ScheduledFuture<?> keepAliveTask;
+
+    private Connection(Socket socket) throws IOException {
+        this.socket = socket;
+        // Messages are small and mostly answered, so they should not wait for the previous acknowledgement
+        socket.setTcpNoDelay(true);
+    }
+
+    static boolean isKeepAlive(Object message) {
+        return message.getClass() == Notification.class && "".equals(((Notification) message).getPlayerId());
+    }
+
+    static boolean isTurnBoundary(Object message) {
+        return message instanceof GameState || message instanceof Gear;
+    }
+
+    /**
+     * Server side handshake, which may block until the client has sent its hello.
+     */
+    static Connection accept(Socket socket) throws IOException {
+        final PushbackInputStream in = new PushbackInputStream(socket.getInputStream(), MAGIC.length);
+        final byte[] magic = new byte[MAGIC.length];
+        int length = 0;
+        while (length < magic.length) {
+            final int count = in.read(magic, length, magic.length - length);
+            if (count < 0) {
+                throw new EOFException("Connection closed during handshake");
+            }
+            length += count;
+        }
+        if (!Arrays.equals(magic, MAGIC)) {
+            in.unread(magic);
+            return new SerializedConnection(socket, in, false);
+        }
+        final int version = in.read();
+        if (version < 1) {
+            throw new StreamCorruptedException("Unsupported protocol version " + version);
+        }
+        final OutputStream out = socket.getOutputStream();
+        out.write(MAGIC);
+        out.write(Math.min(version, VERSION));
+        out.flush();
+        final BinaryConnection connection = new BinaryConnection(socket, in, Math.min(version, VERSION), false);
+        if (version >= 2) {
+            final int idLength = (int) WireCodec.readVarint(connection.in);
+            if (idLength > maxGameIdLength + 1) {
+                throw new StreamCorruptedException("Too long game id");
+            }
+            if (idLength > 1) {
+                final byte[] bytes = new byte[idLength - 1];
+                connection.in.readFully(bytes);
+                connection.gameId = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Client side handshake, which may block if connection cannot be established.
+     * The game id selects the game to join on servers which host many, and may be null.
+     */
+    static Connection connect(Socket socket, String gameId) throws IOException {
+        if (Boolean.getBoolean("gp.serialization")) {
+            return new SerializedConnection(socket, socket.getInputStream(), true);
+        }
+        final OutputStream out = socket.getOutputStream();
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.flush();
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        final int version = in.read();
+        if (!Arrays.equals(magic, MAGIC) || version < 1 || version > VERSION) {
+            throw new StreamCorruptedException("Unsupported server protocol");
+        }
+        final BinaryConnection connection = new BinaryConnection(socket, in, version, true);
+        if (version >= 2) {
+            final byte[] bytes = gameId == null ? new byte[0] : gameId.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > maxGameIdLength) {
+                throw new IllegalArgumentException("Too long game id: " + gameId);
+            }
+            WireCodec.writeVarint(connection.out, bytes.length + 1);
+            connection.out.write(bytes);
+            connection.out.flush();
+            connection.gameId = gameId;
+        }
+        return connection;
+    }
+
+    /**
+     * Sends the message, returns the number of bytes written.
+     */
+    int send(Object message) throws IOException {
+        return send(message, true);
+    }
+
+    /**
+     * Sends the message, and flushes it to the socket unless more messages follow immediately.
+     */
+    int send(Object message, boolean flush) throws IOException {
+        sendLock.lock();
+        try {
+            final int length = write(message, flush);
+            sentBytes += length;
+            lastSent = System.currentTimeMillis();
+            return length;
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    abstract int write(Object message, boolean flush) throws IOException;
+
+    /**
+     * Blocks until the next message is received.
+     */
+    abstract Object receive() throws IOException, ClassNotFoundException;
+
+    abstract boolean isBinary();
+
+    /**
+     * Returns the id of the game the client wants to join, or null.
+     */
+    String getGameId() {
+        return gameId;
+    }
+
+    long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Returns an estimate of the bytes the connection keeps referenced between messages.
+     */
+    abstract long getRetainedBytes();
+
+    /**
+     * Starts sending keep-alives when the connection is idle, and times out reads from binary peers.
+     */
+    void startKeepAlive() throws IOException {
+        if (isBinary()) {
+            socket.setSoTimeout(keepAliveTimeoutMs);
+        }
+        keepAliveTask = keepAlives.scheduleWithFixedDelay(() -> {
+            // Connection which is being written to is not idle, and a slow peer must not block other connections
+            if (System.currentTimeMillis() - lastSent >= keepAliveIntervalMs && sendLock.tryLock()) {
+                try {
+                    sentBytes += write(keepAlive, true);
+                    lastSent = System.currentTimeMillis();
+                } catch (IOException e) {
+                    stopKeepAlive();
+                } finally {
+                    sendLock.unlock();
+                }
+            }
+        }, keepAliveIntervalMs, keepAliveIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopKeepAlive() {
+        final ScheduledFuture<?> task = keepAliveTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    void close() throws IOException {
+        stopKeepAlive();
+        socket.close();
+    }
+
+    private static final class BinaryConnection extends Connection {
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final WireCodec.Encoder encoder = new WireCodec.Encoder();
+        private final WireCodec.Decoder decoder = new WireCodec.Decoder();
+        private final int version;
+        private final boolean client;
+        // Tracks offered to the client by their hashes
+        private final Map<String, TrackData> offeredTracks = new HashMap<>();
+
+        private BinaryConnection(Socket socket, InputStream in, int version, boolean client) throws IOException {
+            super(socket);
+            this.in = in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(new BufferedInputStream(in));
+            out = new BufferedOutputStream(socket.getOutputStream());
+            this.version = version;
+            this.client = client;
+        }
+
+        @Override
+        int write(Object message, boolean flush) throws IOException {
+            if (isTurnBoundary(message)) {
+                encoder.trim();
+            }
+            if (message instanceof TrackData && version >= 3 && !client) {
+                final TrackData data = (TrackData) message;
+                synchronized (offeredTracks) {
+                    offeredTracks.put(data.getBundleHash(), data);
+                }
+                message = new WireCodec.TrackOffer(data.getBundleHash());
+            }
+            final int length = encoder.write(message, out);
+            if (flush) {
+                out.flush();
+            }
+            return length;
+        }
+
+        @Override
+        Object receive() throws IOException, ClassNotFoundException {
+            synchronized (decoder) {
+                while (true) {
+                    final Object message = decoder.read(in);
+                    if (isTurnBoundary(message)) {
+                        decoder.trim();
+                    }
+                    if (message instanceof WireCodec.TrackOffer && client) {
+                        final String hash = ((WireCodec.TrackOffer) message).hash;
+                        final TrackData data = TrackCache.load(hash);
+                        if (data != null) {
+                            return data;
+                        }
+                        send(new WireCodec.TrackRequest(hash));
+                    } else if (message instanceof WireCodec.TrackBundle && client) {
+                        final WireCodec.TrackBundle bundle = (WireCodec.TrackBundle) message;
+                        if (!bundle.hash.equals(TrackData.hash(bundle.bytes))) {
+                            throw new StreamCorruptedException("Track data does not match its hash");
+                        }
+                        TrackCache.store(bundle.hash, bundle.bytes);
+                        decoder.trim();
+                        return TrackData.fromBundle(bundle.bytes);
+                    } else if (message instanceof WireCodec.TrackRequest && !client) {
+                        final String hash = ((WireCodec.TrackRequest) message).hash;
+                        final TrackData data;
+                        synchronized (offeredTracks) {
+                            data = offeredTracks.get(hash);
+                        }
+                        if (data == null) {
+                            throw new StreamCorruptedException("Request for a track which was not offered");
+                        }
+                        send(new WireCodec.TrackBundle(hash, data.getBundle()));
+                    } else {
+                        return message;
+                    }
+                }
+            }
+        }
+
+        @Override
+        boolean isBinary() {
+            return true;
+        }
+
+        @Override
+        long getRetainedBytes() {
+            return encoder.getRetainedBytes() + decoder.getRetainedBytes();
+        }
+    }
+
+    private static final class SerializedConnection extends Connection {
+        private final ObjectInputStream ois;
+        private final ObjectOutputStream oos;
+        private final CountingOutputStream out;
+        // Objects written after the last reset are referenced by the handle tables of both ends
+        private volatile long bytesAtReset;
+
+        private SerializedConnection(Socket socket, InputStream in, boolean client) throws IOException {
+            super(socket);
+            out = new CountingOutputStream(socket.getOutputStream());
+            // Server reads the stream header of the client before writing its own
+            if (client) {
+                oos = new ObjectOutputStream(out);
+                ois = new ObjectInputStream(in);
+            } else {
+                ois = new ObjectInputStream(in);
+                oos = new ObjectOutputStream(out);
+            }
+        }
+
+        @Override
+        int write(Object message, boolean flush) throws IOException {
+            if (isTurnBoundary(message)) {
+                oos.reset();
+                bytesAtReset = out.count;
+            }
+            final long count = out.count;
+            oos.writeObject(message);
+            if (flush) {
+                oos.flush();
+            }
+            return (int) (out.count - count);
+        }
+
+        @Override
+        Object receive() throws IOException, ClassNotFoundException {
+            synchronized (ois) {
+                return ois.readObject();
+            }
+        }
+
+        @Override
+        boolean isBinary() {
+            return false;
+        }
+
+        @Override
+        long getRetainedBytes() {
+            return out.count - bytesAtReset;
+        }
+
+        @Override
+        void close() throws IOException {
+            try {
+                ois.close();
+                oos.close();
+            } finally {
+                super.close();
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private volatile long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
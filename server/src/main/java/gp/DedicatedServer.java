@@ -0,0 +1,331 @@
+package gp;
+
+import gp.ai.AI;
+import gp.ai.TrackData;
+import gp.model.Kick;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+
+/**
+ * Command line server which hosts many multiplayer races at once without any user interface.
+ * Clients select the race with a game id of the form TRACK or TRACK:NAME, for example
+ * monza:friday, by joining HOST:PORT/monza:friday. The first joiner creates the race, and it starts
+ * when the grid is full of players, or the given time after the first join with AIs in the
+ * remaining slots. Clients without a game id join any race which has not started yet.
+ *
+ * Joiners are accepted by a shared accept loop and the races are run on a shared pool of
+ * threads. Tracks are loaded once and shared by the races on the same track. The built-in tracks
+ * are hosted together with the tracks of the track directory, tracks by default.
+ *
+ * Usage: gp.DedicatedServer [-port N] [-threads N] [-tracks DIR] [-cars N] [-wait S] [-laps N] [-hp N] [-time S] [-leeway S] [-ai AI] [-weather]
+ * where AI is one of BEGINNER, AMATEUR or PRO.
+ */
+public class DedicatedServer {
+
+    private static final int handshakeTimeoutSeconds = 30;
+    private static final int acceptRetryDelayMs = 100;
+    private int port = 1277;
+    private int threads = 32;
+    private String trackDirectory = "tracks";
+    private int cars = Main.minGridSize;
+    private int waitSeconds = 60;
+    private int laps = 1;
+    private int maxHitpoints = 18;
+    private int timePerTurn = 30;
+    private int leeway = 3600;
+    private AI.Type aiType = AI.Type.PRO;
+    private boolean weather;
+
+    private final Map<String, TrackData> tracks = new TreeMap<>();
+    // Races by game id, from the first join until the race is over
+    private final Map<String, HostedRace> races = new HashMap<>();
+    private int automaticGameIds;
+    private ExecutorService raceLoops;
+    private final ExecutorService handshakes = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r, "Server handshake");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "Server timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final class HostedRace {
+        private final String gameId;
+        private final TrackData data;
+        private final Map<RemoteAI, ProfileMessage> clients = new LinkedHashMap<>();
+        private int pendingJoins;
+        private boolean started;
+        private ScheduledFuture<?> startTimer;
+
+        private HostedRace(String gameId, TrackData data) {
+            this.gameId = gameId;
+            this.data = data;
+        }
+
+        private int getCapacity() {
+            return Math.min(cars, data.getGridMaxSize());
+        }
+
+        /**
+         * Reserves a slot for a joiner, returns false if the race is full or has started.
+         */
+        private synchronized boolean reserve() {
+            if (started || clients.size() + pendingJoins >= getCapacity()) {
+                return false;
+            }
+            ++pendingJoins;
+            return true;
+        }
+
+        private void join(RemoteAI client, ProfileMessage profile) {
+            boolean full = false;
+            boolean abandoned = false;
+            synchronized (this) {
+                --pendingJoins;
+                String rejection = null;
+                if (profile != null && started) {
+                    rejection = "Race has already started";
+                } else if (profile != null && clients.values().stream().anyMatch(p -> p.getId().equals(profile.getId()))) {
+                    rejection = "Duplicate profile";
+                }
+                if (profile != null && rejection == null) {
+                    clients.put(client, profile);
+                    Main.log.info("Client " + profile.getName() + " joined race " + gameId);
+                    if (startTimer == null) {
+                        startTimer = timers.schedule(this::start, waitSeconds, TimeUnit.SECONDS);
+                    }
+                    full = clients.size() >= getCapacity();
+                } else {
+                    if (rejection != null) {
+                        client.notify(new Kick(rejection));
+                    }
+                    client.close();
+                    if (clients.isEmpty() && pendingJoins == 0 && !started) {
+                        // Nobody managed to join
+                        started = true;
+                        abandoned = true;
+                    }
+                }
+            }
+            if (full) {
+                start();
+            } else if (abandoned) {
+                remove();
+            }
+        }
+
+        private void start() {
+            synchronized (this) {
+                if (started) {
+                    return;
+                }
+                started = true;
+                if (startTimer != null) {
+                    startTimer.cancel(false);
+                }
+            }
+            raceLoops.execute(this::run);
+        }
+
+        private void run() {
+            try {
+                final Map<AI, ProfileMessage> entrants = new LinkedHashMap<>(); // preserve order
+                final Set<String> usedNames = new HashSet<>();
+                for (Map.Entry<RemoteAI, ProfileMessage> entry : clients.entrySet()) {
+                    entrants.put(entry.getKey(), entry.getValue());
+                    usedNames.add(entry.getValue().getName());
+                }
+                while (entrants.size() < getCapacity()) {
+                    final ProfileMessage profile = ProfileMessage.createRandomAIProfile(usedNames);
+                    profile.setAIType(aiType);
+                    entrants.put(profile.createAI(data), profile);
+                    usedNames.add(profile.getName());
+                }
+                final RaceEngine.Params params = new RaceEngine.Params(laps, 0, timePerTurn * 1000, leeway * 1000, maxHitpoints, weather);
+                params.gameId = gameId;
+                Main.log.info("Starting race " + gameId + " with " + clients.size() + " clients");
+                new RaceEngine(data, params, entrants, false, new RaceEngine.Listener() {}).race();
+                Main.log.info("Race " + gameId + " finished");
+            } catch (RuntimeException e) {
+                Main.log.log(Level.SEVERE, "Race " + gameId + " failed", e);
+            } finally {
+                for (RemoteAI client : clients.keySet()) {
+                    client.notify(new Kick("Server closed"));
+                    client.close();
+                }
+                remove();
+            }
+        }
+
+        private void remove() {
+            synchronized (races) {
+                races.remove(gameId, this);
+            }
+        }
+    }
+
+    /**
+     * Loads the built-in tracks and the tracks of the track directory, which replace built-in
+     * tracks with the same name.
+     */
+    private void loadTracks() {
+        final List<String> internal = new ArrayList<>();
+        TrackPreviewButton.getAllTracks(internal, new ArrayList<>());
+        for (String trackId : internal) {
+            final TrackData data = TrackData.createTrackData(trackId, false);
+            if (data == null) {
+                System.err.println("Skipping invalid track " + trackId);
+            } else {
+                tracks.put(trackId.substring(0, trackId.length() - 4), data);
+            }
+        }
+        final File[] files = new File(trackDirectory).listFiles(f -> f.getName().toLowerCase().endsWith(".dat"));
+        if (files != null) {
+            for (File file : files) {
+                final TrackData data = TrackData.createTrackData(file.getPath(), true);
+                if (data == null) {
+                    System.err.println("Skipping invalid track " + file.getName());
+                } else {
+                    tracks.put(file.getName().substring(0, file.getName().length() - 4), data);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the race which the joiner with the given game id should join with a slot reserved,
+     * or null if there is no such race.
+     */
+    private HostedRace reserve(String gameId) {
+        synchronized (races) {
+            if (gameId == null || gameId.isEmpty()) {
+                for (HostedRace race : races.values()) {
+                    if (race.reserve()) {
+                        return race;
+                    }
+                }
+                final List<String> trackIds = new ArrayList<>(tracks.keySet());
+                gameId = trackIds.get(Main.random.nextInt(trackIds.size())) + ":" + ++automaticGameIds;
+            }
+            HostedRace race = races.get(gameId);
+            if (race == null) {
+                final int separator = gameId.indexOf(':');
+                final TrackData data = tracks.get(separator < 0 ? gameId : gameId.substring(0, separator));
+                if (data == null) {
+                    return null;
+                }
+                race = new HostedRace(gameId, data);
+                races.put(gameId, race);
+            }
+            return race.reserve() ? race : null;
+        }
+    }
+
+    private void join(Socket socket) {
+        // Handshake includes reading of the client hello and profile, and sending of track data
+        final ScheduledFuture<?> timeout = timers.schedule(() -> {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Main.log.log(Level.WARNING, "Server IOException", e);
+            }
+        }, handshakeTimeoutSeconds, TimeUnit.SECONDS);
+        final Connection connection;
+        try {
+            connection = Connection.accept(socket);
+        } catch (IOException e) {
+            timeout.cancel(false);
+            Main.log.log(Level.WARNING, "Error when initializing Client " + socket.getInetAddress(), e);
+            try {
+                socket.close();
+            } catch (IOException e2) {
+                Main.log.log(Level.WARNING, "Server IOException", e2);
+            }
+            return;
+        }
+        final RemoteAI client = new RemoteAI(connection);
+        final HostedRace race = reserve(connection.getGameId());
+        if (race == null) {
+            timeout.cancel(false);
+            client.notify(new Kick("Game " + connection.getGameId() + " is not available"));
+            client.close();
+            return;
+        }
+        final ProfileMessage profile = client.getProfile(race.data);
+        timeout.cancel(false);
+        race.join(client, profile);
+    }
+
+    private void run() throws IOException {
+        loadTracks();
+        if (tracks.isEmpty()) {
+            System.err.println("No tracks found");
+            return;
+        }
+        raceLoops = Executors.newFixedThreadPool(threads);
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Hosting races on " + tracks.size() + " tracks on port " + port);
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    handshakes.execute(() -> join(socket));
+                } catch (IOException e) {
+                    // Failure to accept one client, e.g. when out of file descriptors, must not stop hosting.
+                    // Pause briefly, so that a failure which persists does not flood the log.
+                    Main.log.log(Level.WARNING, "Server IOException", e);
+                    try {
+                        Thread.sleep(acceptRetryDelayMs);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        } finally {
+            raceLoops.shutdown();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: gp.DedicatedServer [-port N] [-threads N] [-tracks DIR] [-cars N] [-wait S] [-laps N] [-hp N] [-time S] [-leeway S] [-ai AI] [-weather]");
+        System.err.println("AI is one of BEGINNER, AMATEUR or PRO");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        final DedicatedServer server = new DedicatedServer();
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                    case "-port": server.port = Integer.parseInt(args[++i]); break;
+                    case "-threads": server.threads = Integer.parseInt(args[++i]); break;
+                    case "-tracks": server.trackDirectory = args[++i]; break;
+                    case "-cars": server.cars = Integer.parseInt(args[++i]); break;
+                    case "-wait": server.waitSeconds = Integer.parseInt(args[++i]); break;
+                    case "-laps": server.laps = Integer.parseInt(args[++i]); break;
+                    case "-hp": server.maxHitpoints = Integer.parseInt(args[++i]); break;
+                    case "-time": server.timePerTurn = Integer.parseInt(args[++i]); break;
+                    case "-leeway": server.leeway = Integer.parseInt(args[++i]); break;
+                    case "-ai": server.aiType = AI.Type.valueOf(args[++i].toUpperCase()); break;
+                    case "-weather": server.weather = true; break;
+                    default: usage();
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        if (server.aiType == AI.Type.MANUAL || server.threads < 1 || server.cars < 1 || server.waitSeconds < 0) {
+            usage();
+        }
+        server.run();
+    }
+}
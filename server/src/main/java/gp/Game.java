@@ -61,6 +61,7 @@ public abstract class Game extends JPanel implements PlayerRenderer {
     private List<HitpointAnimation> animations = Collections.synchronizedList(new ArrayList<>());
 
     private double scale = 1.0;
+    private int zoomLevel; // scale is 1.1^zoomLevel, at most 4
     private Dimension panelDim;
 
     private class HitpointAnimation {
@@ -105,18 +106,16 @@ public abstract class Game extends JPanel implements PlayerRenderer {
         view.add(zoomOut);
         final Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
         zoomIn.addActionListener(e -> {
-            final double oldScale = scale;
-            scale = Math.min(4.0, scale * 1.1);
-            if (scale != oldScale) {
+            if (scale < 4.0) {
+                scale = Math.min(4.0, Math.pow(1.1, ++zoomLevel));
                 frame.pack();
                 frame.setSize(Math.min(screenSize.width, frame.getWidth()), Math.min(screenSize.height - 100, frame.getHeight()));
             }
         });
         zoomIn.setShortcut(new MenuShortcut(KeyEvent.VK_PLUS));
         zoomOut.addActionListener(e -> {
-            final double oldScale = scale;
-            scale = Math.max(1.0, scale / 1.1);
-            if (scale != oldScale) {
+            if (zoomLevel > 0) {
+                scale = Math.pow(1.1, --zoomLevel);
                 frame.pack();
                 frame.setSize(Math.min(screenSize.width, frame.getWidth()), Math.min(screenSize.height - 100, frame.getHeight()));
             }
@@ -224,12 +223,15 @@ public abstract class Game extends JPanel implements PlayerRenderer {
     @Override
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
+        if (backgroundImage != null) {
+            // Scaled background is cached for each zoom level, instead of scaling it on every repaint
+            final int width = (int) (backgroundImage.getWidth() * scale);
+            final int height = (int) (backgroundImage.getHeight() * scale);
+            g.drawImage(ImageCache.getScaledImage(data.getCacheKey(), backgroundImage, width, height), 0, 0, null);
+        }
         AffineTransform at = new AffineTransform();
         at.scale(scale, scale);
         ((Graphics2D) g).transform(at);
-        if (backgroundImage != null) {
-            g.drawImage(backgroundImage, 0, 0, null);
-        }
         final Graphics2D g2d = (Graphics2D) g;
         // Circle for dice rolls
         if (gearCorner != null) {
@@ -3,30 +3,149 @@ package gp;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.*;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Decoded images by resource name or file path, and scaled variants of them. The cache is bounded
+ * by the memory taken by the pixels, and the least recently used images are dropped first. Images
+ * are held through soft references, so they can also be dropped when memory runs low. Images are
+ * shared, so they must not be modified.
+ */
 public abstract class ImageCache {
+    private static final long maxPixelBytes = 256L << 20;
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long pixelBytes;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static final class Entry {
+        private final SoftReference<BufferedImage> image;
+        private final long bytes;
+        private final Object source; // file stamp of decoded images, weak reference to the source of scaled images
+
+        private Entry(BufferedImage image, Object source) {
+            this.image = new SoftReference<>(image);
+            final DataBuffer buffer = image.getRaster().getDataBuffer();
+            this.bytes = (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+            this.source = source;
+        }
+
+        private boolean isFrom(Object source) {
+            return this.source instanceof WeakReference ? ((WeakReference<?>) this.source).get() == source : this.source.equals(source);
+        }
+    }
+
+    private static synchronized BufferedImage get(String key, Object source) {
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            final BufferedImage image = entry.image.get();
+            if (image != null && entry.isFrom(source)) {
+                hits.incrementAndGet();
+                return image;
+            }
+            remove(key);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private static synchronized void put(String key, BufferedImage image, Object source) {
+        remove(key);
+        final Entry entry = new Entry(image, source);
+        if (entry.bytes > maxPixelBytes) {
+            return;
+        }
+        entries.put(key, entry);
+        pixelBytes += entry.bytes;
+        final Iterator<Entry> it = entries.values().iterator();
+        while (pixelBytes > maxPixelBytes && it.hasNext()) {
+            pixelBytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    private static void remove(String key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null) {
+            pixelBytes -= entry.bytes;
+        }
+    }
 
     public static BufferedImage getImage(String name) {
+        final String key = "resource:" + name;
+        final BufferedImage cachedImage = get(key, name);
+        if (cachedImage != null) {
+            return cachedImage;
+        }
         try (InputStream is = ImageCache.class.getResourceAsStream(name)) {
-            return toCompatibleImage(ImageIO.read(is));
+            final BufferedImage image = toCompatibleImage(ImageIO.read(is));
+            put(key, image, name);
+            return image;
         } catch (IOException e) {
             throw new RuntimeException("Image " + name + " is missing");
         }
     }
 
     public static BufferedImage getImageFromPath(String absolutePath) {
-        try (InputStream is = new FileInputStream(absolutePath)) {
-            return toCompatibleImage(ImageIO.read(is));
+        final File file = new File(absolutePath);
+        final String key = "file:" + file.getAbsolutePath();
+        // Image is decoded again if the file has been modified
+        final String stamp = file.lastModified() + ":" + file.length();
+        final BufferedImage cachedImage = get(key, stamp);
+        if (cachedImage != null) {
+            return cachedImage;
+        }
+        try (InputStream is = new FileInputStream(file)) {
+            final BufferedImage image = toCompatibleImage(ImageIO.read(is));
+            put(key, image, stamp);
+            return image;
         } catch (IOException e) {
             throw new RuntimeException("Image " + absolutePath + " is missing");
         }
     }
 
+    /**
+     * Returns the image scaled to the given size. Scaled images are cached by the given key of
+     * the image, for example thumbnails and zoomed track backgrounds.
+     */
+    public static BufferedImage getScaledImage(String key, BufferedImage image, int width, int height) {
+        if (image.getWidth() == width && image.getHeight() == height) {
+            return image;
+        }
+        final String scaledKey = "scaled:" + key + "@" + width + "x" + height;
+        final BufferedImage cachedImage = get(scaledKey, image);
+        if (cachedImage != null) {
+            return cachedImage;
+        }
+        final BufferedImage scaledImage = getConfiguration().createCompatibleImage(width, height, image.getTransparency());
+        final Graphics2D g = scaledImage.createGraphics();
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        put(scaledKey, scaledImage, new WeakReference<>(image));
+        return scaledImage;
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static synchronized long getPixelBytes() {
+        return pixelBytes;
+    }
+
     private static BufferedImage toCompatibleImage(BufferedImage image) {
         GraphicsConfiguration gc = getConfiguration();
         if (image.getColorModel().equals(gc.getColorModel())) {
@@ -7,17 +7,34 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.Level;
 
+/**
+ * Accepts clients to the player slots of a multiplayer game. Each joining client is handshaked
+ * in its own task, so that a slow client does not delay the others, and a client which does
+ * not complete the handshake in time is disconnected.
+ */
 public class Lobby extends Thread {
 
+    private static final int handshakeTimeoutSeconds = 30;
     private final ServerSocket serverSocket;
     private List<PlayerSlot> slots;
     private TrackData data;
     volatile boolean done;
-    volatile boolean busy;
     private final List<RemoteAI> clients = new ArrayList<>();
     private final Map<UUID, RemoteAI> clientMap = new HashMap<>();
+    private final ExecutorService handshakes = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r, "Lobby handshake");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "Lobby timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     Lobby(int port) throws IOException {
         serverSocket = new ServerSocket(port);
     }
@@ -27,24 +44,39 @@ public class Lobby extends Thread {
     }
 
     void setTrack(TrackData data) {
-        if (!data.equals(this.data)) {
+        final List<RemoteAI> clientsToUpdate;
+        synchronized (clientMap) {
+            if (data.equals(this.data)) {
+                return;
+            }
             this.data = data;
-            synchronized (clientMap) {
-                final Set<UUID> idsToKick = new HashSet<>();
-                for (RemoteAI client : clients) {
-                    final ProfileMessage reply = client.getProfile(data);
-                    if (reply == null) {
-                        clientMap.entrySet().stream().filter(e -> e.getValue() == client).map(Map.Entry::getKey).findFirst().ifPresent(idsToKick::add);
-                    }
+            clientsToUpdate = new ArrayList<>(clients);
+        }
+        // Clients which are still in handshake notice the change when they complete
+        final Map<RemoteAI, Future<ProfileMessage>> replies = new HashMap<>();
+        for (RemoteAI client : clientsToUpdate) {
+            replies.put(client, handshakes.submit(() -> client.getProfile(data)));
+        }
+        final Set<UUID> idsToKick = new HashSet<>();
+        for (Map.Entry<RemoteAI, Future<ProfileMessage>> entry : replies.entrySet()) {
+            ProfileMessage reply;
+            try {
+                reply = entry.getValue().get(handshakeTimeoutSeconds, TimeUnit.SECONDS);
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                reply = null;
+            }
+            if (reply == null) {
+                synchronized (clientMap) {
+                    clientMap.entrySet().stream().filter(e -> e.getValue() == entry.getKey()).map(Map.Entry::getKey).findFirst().ifPresent(idsToKick::add);
                 }
-                if (!idsToKick.isEmpty()) {
-                    for (PlayerSlot slot : slots) {
-                        if (idsToKick.contains(slot.getProfile().getId())) {
-                            dropClient(slot.getProfile().getId());
-                            slot.setProfile(null);
-                            slot.setEnabled(true);
-                        }
-                    }
+            }
+        }
+        if (!idsToKick.isEmpty()) {
+            for (PlayerSlot slot : slots) {
+                if (slot.getProfile() != null && idsToKick.contains(slot.getProfile().getId())) {
+                    dropClient(slot.getProfile().getId());
+                    slot.setProfile(null);
+                    slot.setEnabled(true);
                 }
             }
         }
@@ -52,60 +84,97 @@ public class Lobby extends Thread {
 
     @Override
     public void run() {
-        waiting:
         while (!done) {
             System.out.println("Waiting for clients");
             try {
-                busy = false;
                 final Socket socket = serverSocket.accept();
-                while (busy) {
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-                busy = true;
-                for (PlayerSlot slot : slots) {
-                    if (slot.isFree()) {
-                        slot.setProfile(ProfileMessage.pending);
-                        final RemoteAI client = new RemoteAI(socket);
-                        final ProfileMessage message = client.getProfile(data);
-                        if (message != null) {
-                            synchronized (clientMap) {
-                                final RemoteAI old = clientMap.put(message.getId(), client);
-                                if (old != null) {
-                                    for (PlayerSlot usedSlot : slots) {
-                                        if (usedSlot.getProfile().getId().equals(message.getId()))
-                                        {
-                                            usedSlot.setProfile(message);
-                                            System.out.println("Client reconnected: " + message.getName());
-                                            usedSlot.repaint();
-                                            slot.setProfile((ProfileMessage) null);
-                                            slot.setEnabled(true);
-                                            slot.repaint();
-                                            clients.remove(old);
-                                            clients.add(client);
-                                            continue waiting;
-                                        }
-                                    }
-                                }
-                                clients.add(client);
-                            }
-                            slot.setProfile(message);
-                            System.out.println("Client connected: " + message.getName());
-                            slot.setEnabled(true);
-                            slot.repaint();
-                        }
-                        continue waiting;
-                    }
+                handshakes.execute(() -> join(socket));
+            } catch (IOException e) {
+                if (!done) {
+                    Main.log.log(Level.WARNING, "Server IOException", e);
                 }
-                // The game is full :(
+            } catch (RejectedExecutionException e) {
+                // Lobby was closed
+            }
+        }
+    }
+
+    private void join(Socket socket) {
+        final PlayerSlot slot;
+        synchronized (clientMap) {
+            slot = slots.stream().filter(PlayerSlot::isFree).findFirst().orElse(null);
+            if (slot != null) {
+                slot.setProfile(ProfileMessage.pending);
+            }
+        }
+        if (slot == null) {
+            // The game is full :(
+            try {
                 socket.close();
             } catch (IOException e) {
                 Main.log.log(Level.WARNING, "Server IOException", e);
             }
+            return;
         }
+        slot.repaint();
+        // Handshake includes sending of track data, and reading of the client hello and profile
+        final ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Main.log.log(Level.WARNING, "Server IOException", e);
+            }
+        }, handshakeTimeoutSeconds, TimeUnit.SECONDS);
+        final RemoteAI client = new RemoteAI(socket);
+        ProfileMessage message = null;
+        TrackData sentData = null;
+        do {
+            synchronized (clientMap) {
+                if (message != null && sentData == data) {
+                    timeout.cancel(false);
+                    register(client, message, slot);
+                    return;
+                }
+                sentData = data;
+            }
+            // Track data is sent again if the track was changed during the handshake
+            message = sentData == null ? null : client.getProfile(sentData);
+        } while (message != null);
+        timeout.cancel(false);
+        if (socket.isClosed() && !done) {
+            Main.log.info("Client " + socket.getInetAddress() + " did not complete handshake");
+        }
+        synchronized (clientMap) {
+            if (slot.getProfile() == ProfileMessage.pending) {
+                slot.setProfile((ProfileMessage) null);
+                slot.setEnabled(true);
+            }
+        }
+        slot.repaint();
+    }
+
+    private void register(RemoteAI client, ProfileMessage message, PlayerSlot slot) {
+        final RemoteAI old = clientMap.put(message.getId(), client);
+        if (old != null) {
+            for (PlayerSlot usedSlot : slots) {
+                if (usedSlot.getProfile() != null && usedSlot.getProfile().getId().equals(message.getId())) {
+                    usedSlot.setProfile(message);
+                    System.out.println("Client reconnected: " + message.getName());
+                    usedSlot.repaint();
+                    slot.setProfile((ProfileMessage) null);
+                    slot.setEnabled(true);
+                    slot.repaint();
+                    clients.remove(old);
+                    clients.add(client);
+                    return;
+                }
+            }
+        }
+        clients.add(client);
+        slot.setProfile(message);
+        System.out.println("Client connected: " + message.getName());
+        slot.setEnabled(true);
+        slot.repaint();
     }
 
     RemoteAI getClient(UUID id) {
@@ -125,6 +194,9 @@ public class Lobby extends Thread {
     }
 
     void close() {
+        done = true;
+        handshakes.shutdownNow();
+        timeouts.shutdownNow();
         for (RemoteAI client : clients) {
             client.notify(new Kick("Server closed"));
             client.close();
@@ -134,6 +206,5 @@ public class Lobby extends Thread {
         } catch (IOException e) {
             Main.log.log(Level.SEVERE, "Lobby IOException", e);
         }
-        done = true;
     }
 }
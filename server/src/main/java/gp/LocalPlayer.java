@@ -4,8 +4,6 @@ import java.util.*;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
-import javax.swing.JPanel;
-
 import gp.ai.Gear;
 import gp.ai.Node;
 
@@ -14,9 +12,9 @@ import gp.model.*;
 
 public final class LocalPlayer extends Player {
     private UUID id;
-    private final List<DamageAndPath> paths = new ArrayList<>();
-    private final JPanel panel; // for repaint requests needed for animations
-    static int animationDelayInMillis;
+    private List<Target> targets = Collections.emptyList();
+    private TargetSearch search; // search which found the targets
+    private final RaceEngine engine; // for notifications and animations
     private long timeUsed;
     private int exceptions;
     private int turns;
@@ -25,10 +23,23 @@ public final class LocalPlayer extends Player {
     private int pitStops;
     private final int maxHitpoints;
 
-    LocalPlayer(String playerId, Node node, double initialAngle, int laps, JPanel panel, int leeway, int maxHitpoints, Tires tires, int[] colors) {
-        super(playerId, node, initialAngle, panel, colors);
+    // Valid move, from which the route can be searched again
+    private static final class Target {
+        private final int nodeId;
+        private final int distance;
+        private final int damage;
+
+        private Target(int nodeId, int distance, int damage) {
+            this.nodeId = nodeId;
+            this.distance = distance;
+            this.damage = damage;
+        }
+    }
+
+    LocalPlayer(String playerId, Node node, double initialAngle, int laps, RaceEngine engine, int leeway, int maxHitpoints, Tires tires, int[] colors) {
+        super(playerId, node, initialAngle, null, colors);
         lapsToGo = laps;
-        this.panel = panel;
+        this.engine = engine;
         this.leeway = leeway;
         if (node.isCurve()) {
             curveStops = node.getStopCount();
@@ -107,48 +118,40 @@ public final class LocalPlayer extends Player {
     }
 
     boolean switchGear(int newGear) {
-        if (newGear < 1 || newGear > 6) return false;
+        final int damage = getGearSwitchDamage(newGear);
+        if (damage < 0) return false;
 
         if (newGear == gear) return true;
 
-        if (node.getType() == NodeType.PIT && newGear > 4) return false;
-
-        if (Math.abs(newGear - gear) <= 1) {
-            setGear(newGear);
-            panel.repaint();
-            try {
-                Thread.sleep(animationDelayInMillis);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            return true;
+        if (damage > 0) {
+            adjustHitpoints(damage, HitpointNotification.Source.GEARS);
         }
+        setGear(newGear);
+        engine.animate();
+        return true;
+    }
+
+    /**
+     * Returns the damage of switching to the given gear, or -1 if the gear cannot be selected.
+     */
+    int getGearSwitchDamage(int newGear) {
+        if (newGear < 1 || newGear > 6) return -1;
+
+        if (newGear == gear) return 0;
+
+        if (node.getType() == NodeType.PIT && newGear > 4) return -1;
+
+        if (Math.abs(newGear - gear) <= 1) return 0;
 
         // downwards more than 1
         final int damage = gear - newGear - 1;
-        if (damage > 0 && damage < 4 && hitpoints > damage) {
-            adjustHitpoints(damage, HitpointNotification.Source.GEARS);
-            setGear(newGear);
-            panel.repaint();
-            try {
-                Thread.sleep(animationDelayInMillis);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            return true;
-        }
-        return false;
+        return damage > 0 && damage < 4 && hitpoints > damage ? damage : -1;
     }
 
     public void useCurrentGear() {
         if (gear == 0) {
             setGear(1);
-            panel.repaint();
-            try {
-                Thread.sleep(animationDelayInMillis);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            engine.animate();
         }
     }
 
@@ -156,12 +159,21 @@ public final class LocalPlayer extends Player {
         if (gear == 0) return 0;
         final int[] distribution = Gear.getDistribution(gear);
         final int roll = distribution[rng.nextInt(distribution.length)];
-        ((Main) panel).notifyAll(new RollNotification(playerId, gear, roll));
+        engine.notifyAll(new RollNotification(playerId, gear, roll));
         return roll;
     }
 
     public void move(int index) {
-        move(paths.get(index));
+        // Only the route of the selected move is needed, search it again as AI may have used the generator meanwhile
+        final Target target = targets.get(index);
+        final MoveGenerator generator = MoveGenerator.forNode(node);
+        search.searchTargets(generator, gear, target.distance);
+        generator.select(target.distance);
+        final int targetIndex = generator.indexOf(target.nodeId);
+        if (targetIndex < 0) {
+            throw new RuntimeException("Target " + target.nodeId + " is no longer reachable");
+        }
+        move(new DamageAndPath(target.damage, generator.getPath(targetIndex)));
     }
 
     private void move(DamageAndPath dp) {
@@ -201,12 +213,8 @@ public final class LocalPlayer extends Player {
         for (int i = 1; i < size; ++i) {
             final Node n2 = route.get(i);
             move(n2);
-            ((Main) panel).notifyAll(new MovementNotification(playerId, n2.getId()));
-            try {
-                Thread.sleep(animationDelayInMillis);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            engine.notifyAll(new MovementNotification(playerId, n2.getId()));
+            engine.animate();
         }
         boolean onlyCurves = true;
         for (Node node : route) {
@@ -238,10 +246,10 @@ public final class LocalPlayer extends Player {
             stop();
         }
         if (curveStops != oldCurveStops) {
-            ((Main) panel).notifyAll(new CurveStopNotification(playerId, curveStops));
+            engine.notifyAll(new CurveStopNotification(playerId, curveStops));
         }
         if (lapsToGo != oldLapsToGo) {
-            ((Main) panel).notifyAll(new LapChangeNotification(playerId, lapsToGo));
+            engine.notifyAll(new LapChangeNotification(playerId, lapsToGo));
         }
     }
 
@@ -250,8 +258,8 @@ public final class LocalPlayer extends Player {
             // Show animation
             Main.log.info("Player " + getNameAndId() + " loses " + loss + " hitpoints");
             hitpoints -= loss;
-            ((Main) panel).notifyAll(new HitpointNotification(playerId, hitpoints, source));
-            ((Game) panel).scheduleHitpointAnimation(loss, this, source);
+            engine.notifyAll(new HitpointNotification(playerId, hitpoints, source));
+            engine.hitpointsChanged(this, loss, source);
         }
     }
 
@@ -261,88 +269,156 @@ public final class LocalPlayer extends Player {
             // Show animation
             Main.log.info("Player " + getNameAndId() + " pits and recovers full hitpoints");
             hitpoints += gain;
-            ((Main) panel).notifyAll(new HitpointNotification(playerId, hitpoints, HitpointNotification.Source.PITS));
-            ((Game) panel).scheduleHitpointAnimation(-gain, this, HitpointNotification.Source.PITS);
+            engine.notifyAll(new HitpointNotification(playerId, hitpoints, HitpointNotification.Source.PITS));
+            engine.hitpointsChanged(this, -gain, HitpointNotification.Source.PITS);
         }
     }
 
     Moves findAllTargets(int roll, String gameId, List<LocalPlayer> players, Weather weather, int totalLaps) {
-        int braking = 0;
+        return useTargets(prepareSearch(players, weather, totalLaps).findAllTargets(roll, gear, hitpoints, gameId));
+    }
+
+    /**
+     * Captures the state which the valid moves depend on, except gear and hitpoints, which may still change
+     * when the gear is selected. Later changes to the player do not affect the search.
+     */
+    TargetSearch prepareSearch(List<LocalPlayer> players, Weather weather, int totalLaps) {
         final Set<Node> forbiddenNodes = players
             .stream()
             .map(player -> player.node)
             .collect(Collectors.toSet());
-        paths.clear();
-        final boolean rain = weather == Weather.RAIN;
-        final int overshootMultiplier = tires == null ? 1 : tires.getOvershootDamage(weather);
-        final List<ValidMove> validMoves = new ArrayList<>();
-        if (tires != null && tires.canUse(weather) && !rain) {
-            final Map<Node, DamageAndPath> targets = findTargetNodes(roll + 1, forbiddenNodes, totalLaps);
-            for (Map.Entry<Node, DamageAndPath> e : targets.entrySet()) {
-                final int damage = e.getValue().getDamage() * overshootMultiplier;
-                if (damage < hitpoints) {
-                    validMoves.add(new ValidMove()
-                            .nodeId(e.getKey().getId())
-                            .overshoot(e.getValue().getDamage() * overshootMultiplier)
-                            .braking(0)
-                    );
-                    paths.add(new DamageAndPath(damage, e.getValue().getPath()));
-                }
-            }
+        return new TargetSearch(this, forbiddenNodes, weather, totalLaps);
+    }
+
+    /**
+     * Makes the targets the valid moves of this turn, and returns the moves.
+     */
+    Moves useTargets(Targets targets) {
+        this.targets = targets.targets;
+        search = targets.search;
+        return targets.moves;
+    }
+
+    /**
+     * Valid moves for one roll, and the targets which are needed to make one of the moves.
+     */
+    static final class Targets {
+        private final TargetSearch search;
+        private final Moves moves;
+        private final List<Target> targets;
+
+        private Targets(TargetSearch search, Moves moves, List<Target> targets) {
+            this.search = search;
+            this.moves = moves;
+            this.targets = targets;
         }
-        final Set<Node> slideNodes = new HashSet<>();
-        while (braking < hitpoints) {
-            final Map<Node, DamageAndPath> targets = findTargetNodes(roll - braking, forbiddenNodes, totalLaps);
-            for (Map.Entry<Node, DamageAndPath> e : targets.entrySet()) {
-                if (rain && (e.getKey().isCurve() || e.getValue().getDamage() > 0)) {
-                    slideNodes.add(e.getKey());
-                    continue;
-                }
-                final int damage = e.getValue().getDamage() * overshootMultiplier + braking;
-                if (damage < hitpoints) {
-                    validMoves.add(new ValidMove()
-                        .nodeId(e.getKey().getId())
-                        .overshoot(e.getValue().getDamage() * overshootMultiplier)
-                        .braking(braking)
-                    );
-                    paths.add(new DamageAndPath(damage, e.getValue().getPath()));
+    }
+
+    static final class TargetSearch {
+        private final Node node;
+        private final int lapsToGo;
+        private final int curveStops;
+        private final Tires tires;
+        private final int tireAge;
+        private final Set<Node> forbiddenNodes;
+        private final Weather weather;
+        private final int totalLaps;
+
+        private TargetSearch(LocalPlayer player, Set<Node> forbiddenNodes, Weather weather, int totalLaps) {
+            node = player.node;
+            lapsToGo = player.lapsToGo;
+            curveStops = player.curveStops;
+            tires = player.tires;
+            tireAge = tires == null ? 0 : tires.getAge();
+            this.forbiddenNodes = forbiddenNodes;
+            this.weather = weather;
+            this.totalLaps = totalLaps;
+        }
+
+        /**
+         * Returns true if the search is still valid for the player, apart from gear and hitpoints.
+         */
+        boolean isValidFor(LocalPlayer player) {
+            return player.node == node && player.lapsToGo == lapsToGo && player.curveStops == curveStops
+                    && player.tires == tires && (tires == null || tires.getAge() == tireAge);
+        }
+
+        Targets findAllTargets(int roll, int gear, int hitpoints, String gameId) {
+            final List<Target> targets = new ArrayList<>();
+            int braking = 0;
+            final boolean rain = weather == Weather.RAIN;
+            final int overshootMultiplier = tires == null ? 1 : tires.getOvershootDamage(weather);
+            final List<ValidMove> validMoves = new ArrayList<>();
+            final boolean extraMove = tires != null && tires.canUse(weather) && !rain;
+            final int slide = tires != null && tires.getType() == Tires.Type.WET ? 1 : 3;
+            // All braking, extra move and slide options are selected from the results of a single search
+            final MoveGenerator generator = MoveGenerator.forNode(node);
+            searchTargets(generator, gear, roll + (rain ? slide : (extraMove ? 1 : 0)));
+            if (extraMove) {
+                final int count = generator.select(roll + 1);
+                for (int i = 0; i < count; ++i) {
+                    if (generator.getDamage(i) >= hitpoints) continue;
+                    final int damage = generator.getDamage(i) * overshootMultiplier;
+                    if (damage < hitpoints) {
+                        addMove(validMoves, targets, generator, i, roll + 1, damage, 0);
+                    }
                 }
             }
-            if (braking == roll) {
-                break;
-            }
-            braking++;
-        }
-        if (!slideNodes.isEmpty()) {
-            final int slide = tires != null && tires.getType() == Tires.Type.WET ? 1 : 3;
-            braking = 0;
+            final Set<Node> slideNodes = new HashSet<>();
             while (braking < hitpoints) {
-                final Map<Node, DamageAndPath> targets = findTargetNodes(roll + slide - braking, forbiddenNodes, totalLaps);
-                for (Map.Entry<Node, DamageAndPath> e : targets.entrySet()) {
-                    if (e.getValue().getPath().stream().noneMatch(slideNodes::contains)) {
+                final int count = generator.select(roll - braking);
+                for (int i = 0; i < count; ++i) {
+                    if (generator.getDamage(i) >= hitpoints) continue;
+                    if (rain && (generator.getTarget(i).isCurve() || generator.getDamage(i) > 0)) {
+                        slideNodes.add(generator.getTarget(i));
                         continue;
                     }
-                    final int damage = e.getValue().getDamage() * overshootMultiplier + braking;
+                    final int damage = generator.getDamage(i) * overshootMultiplier + braking;
                     if (damage < hitpoints) {
-                        validMoves.add(new ValidMove()
-                                .nodeId(e.getKey().getId())
-                                .overshoot(e.getValue().getDamage() * overshootMultiplier)
-                                .braking(braking)
-                        );
-                        paths.add(new DamageAndPath(damage, e.getValue().getPath()));
+                        addMove(validMoves, targets, generator, i, roll - braking, damage, braking);
                     }
                 }
-                if (braking == roll + slide) {
+                if (braking == roll) {
                     break;
                 }
                 braking++;
             }
+            if (!slideNodes.isEmpty()) {
+                braking = 0;
+                while (braking < hitpoints) {
+                    final int count = generator.select(roll + slide - braking);
+                    for (int i = 0; i < count; ++i) {
+                        if (generator.getDamage(i) >= hitpoints || !generator.pathContains(i, slideNodes)) {
+                            continue;
+                        }
+                        final int damage = generator.getDamage(i) * overshootMultiplier + braking;
+                        if (damage < hitpoints) {
+                            addMove(validMoves, targets, generator, i, roll + slide - braking, damage, braking);
+                        }
+                    }
+                    if (braking == roll + slide) {
+                        break;
+                    }
+                    braking++;
+                }
+            }
+            return new Targets(this, new Moves().game(new GameId().gameId(gameId)).moves(validMoves), targets);
         }
-        return new Moves().game(new GameId().gameId(gameId)).moves(validMoves);
-    }
 
-    private Map<Node, DamageAndPath> findTargetNodes(int roll, Set<Node> forbiddenNodes, int totalLaps) {
-        return NodeUtil.findTargetNodes(node, gear, roll, hitpoints, curveStops, lapsToGo, forbiddenNodes, lapsToGo == totalLaps);
+        private static void addMove(List<ValidMove> validMoves, List<Target> targets, MoveGenerator generator, int index, int distance, int damage, int braking) {
+            validMoves.add(new ValidMove()
+                    .nodeId(generator.getTargetId(index))
+                    .overshoot(damage - braking)
+                    .braking(braking)
+            );
+            targets.add(new Target(generator.getTargetId(index), distance, damage));
+        }
+
+        private void searchTargets(MoveGenerator generator, int gear, int maxDistance) {
+            final boolean finalLap = lapsToGo == 0;
+            final boolean allowPitEntry = !finalLap && gear < 5 && lapsToGo != totalLaps;
+            generator.search(node, maxDistance, forbiddenNodes, curveStops, finalLap, allowPitEntry);
+        }
     }
 
     static void possiblyAddEngineDamage(List<LocalPlayer> players, Random rng) {
@@ -451,7 +527,7 @@ public final class LocalPlayer extends Player {
             }
             if (tires != this.tires) {
                 setTires(tires);
-                ((Main) panel).notifyAll(new TireChangeNotification(playerId, tires));
+                engine.notifyAll(new TireChangeNotification(playerId, tires));
             }
         }
     }
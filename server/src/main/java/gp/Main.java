@@ -16,17 +16,10 @@ import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.function.Supplier;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 class PreviousSettings {
     String trackId = "hockenheim.dat";
@@ -42,24 +35,11 @@ class PreviousSettings {
     int maxHitpoints = 18;
 }
 
-public class Main extends Game implements Runnable {
-    private Map<Node, Set<Node>> collisionMap;
-    private LocalPlayer current;
-    private LocalPlayer previous;
-    private List<LocalPlayer> waitingPlayers = new ArrayList<>();
-    private final List<LocalPlayer> allPlayers;
-    private final List<LocalPlayer> players = new ArrayList<>();
-    private final List<LocalPlayer> stoppedPlayers = new ArrayList<>();
-    private final Map<LocalPlayer, AI> aiMap = new HashMap<>();
-    private final Random rng;
-    private boolean stopped;
-    private boolean interrupted;
-    private boolean enableTimeout;
-    private final int gearTimeoutInMillis;
-    private final int moveTimeoutInMillis;
-    private final Set<LocalPlayer> disconnectedPlayers = new HashSet<>();
+public class Main extends Game implements Runnable, RaceEngine.Listener {
+    private final RaceEngine engine;
     private final Lobby lobby;
     private final Season resultStorage;
+    private final int animationDelayInMillis;
     public static final Logger log = Logger.getLogger(Main.class.getName());
     static int defaultColor1 = 0xFF9966;
     static int defaultColor2 = 0xCCCC33;
@@ -67,8 +47,7 @@ public class Main extends Game implements Runnable {
     static boolean sounds = true;
     static PreviousSettings settings = new PreviousSettings();
     public static final int minGridSize = 6;
-    public static final Random random = new Random();
-    private final int totalLaps;
+    public static final Random random = RaceEngine.random;
 
     static {
         try {
@@ -82,39 +61,22 @@ public class Main extends Game implements Runnable {
         }
     }
 
-    public Main(Params params, Lobby lobby, JFrame frame, JPanel panel, List<PlayerSlot> slots, TrackData trackData, Season resultStorage) {
+    public Main(RaceEngine.Params params, Lobby lobby, JFrame frame, JPanel panel, List<PlayerSlot> slots, TrackData trackData, Season resultStorage) {
         super(frame, panel);
         initTrack(trackData);
-        weatherForecast = params.tireChanges ? Weather.forecast(trackData.weatherParams, params.laps * 20) : null;
         settings.trackId = trackData.getTrackId();
         settings.external = trackData.isExternal();
         this.lobby = lobby;
         this.resultStorage = resultStorage;
-        LocalPlayer.animationDelayInMillis = params.animationDelayInMillis;
-        final long seed = params.seed == null ? Main.random.nextLong() : params.seed;
-        this.rng = new Random(seed);
-        log.info("Initializing RNG with seed " + seed);
-        gearTimeoutInMillis = params.gearTimeoutInMillis;
-        moveTimeoutInMillis = params.moveTimeoutInMillis;
-        allPlayers = new ArrayList<>();
-        createGrid(params, slots, frame);
-        waitingPlayers.addAll(players);
-        waitingPlayers.sort((p1, p2) -> p1.compareTo(p2, stoppedPlayers));
-        final List<PlayerStats> stats = new ArrayList<>();
-        for (int i = 0; i < waitingPlayers.size(); i++) {
-            final LocalPlayer player = waitingPlayers.get(i);
-            final PlayerStats playerStats = player.getStatistics(i + 1);
-            stats.add(playerStats);
-        }
-        allPlayers.sort((p1, p2) -> p1.compareTo(p2, stoppedPlayers));
-        standings = new ArrayList<>(allPlayers);
-        if (weatherForecast != null) notifyAll(new WeatherNotification(weatherForecast));
-        notifyAll(new FinalStandings(stats, resultStorage != null));
-        current = waitingPlayers.remove(0);
-        totalLaps = params.laps;
+        animationDelayInMillis = params.animationDelayInMillis;
+        engine = new RaceEngine(trackData, params, createEntrants(slots, frame), resultStorage != null, this);
+        weatherForecast = engine.getWeatherForecast();
+        immutablePlayerMap = new HashMap<>();
+        engine.getAllPlayers().forEach(player -> immutablePlayerMap.put(player.getId(), player));
+        standings = new ArrayList<>(engine.getAllPlayers());
     }
 
-    private void createGrid(Params params, List<PlayerSlot> slots, JFrame frame) {
+    private Map<AI, ProfileMessage> createEntrants(List<PlayerSlot> slots, JFrame frame) {
         final Map<AI, ProfileMessage> aiToProfile = new LinkedHashMap<>(); // preserve order
         for (PlayerSlot slot : slots) {
             final ProfileMessage profile = slot.getProfile();
@@ -133,156 +95,54 @@ public class Main extends Game implements Runnable {
                 }
             }
         }
-        final int playerCount = aiToProfile.size();
-        final List<Node> grid = data.getStartingGrid(playerCount);
-        collisionMap = data.getCollisionMap();
+        return aiToProfile;
+    }
 
-        final List<Integer> startingOrder = IntStream.range(0, playerCount).boxed().collect(Collectors.toList());
-        if (params.randomizeStartingOrder) {
-            Collections.shuffle(startingOrder, rng);
+    @Override
+    public void animate() {
+        repaint();
+        try {
+            Thread.sleep(animationDelayInMillis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
         }
-        enableTimeout = true;
-        final List<CreatedPlayerNotification> notifications = new ArrayList<>();
-        for (Map.Entry<AI, ProfileMessage> e : aiToProfile.entrySet()) {
-            final Tires defaultTires = weatherForecast == null ? null : (weatherForecast.get(0) == Weather.RAIN ? new Tires(Tires.Type.WET) : new Tires(Tires.Type.HARD));
-            notifications.add(createAiPlayer(e, grid, startingOrder, params.leeway, params.laps, params.maxHitpoints, defaultTires));
+    }
+
+    @Override
+    public void hitpointsChanged(LocalPlayer player, int loss, HitpointNotification.Source source) {
+        scheduleHitpointAnimation(loss, player, source);
+    }
+
+    @Override
+    public void gearSelected(AI ai, GameState gameState) {
+        if (ai instanceof ManualAI || engine.getAllPlayers().stream().filter(pl -> !pl.isStopped()).map(engine::getAI).noneMatch(p -> p instanceof ManualAI)) {
+            updateHitpointMap(gameState);
         }
-        aiMap.forEach((player, ai) -> notifications.forEach(notification -> ai.notify(notification.controlled(notification.getPlayerId().equals(player.getId())))));
-        immutablePlayerMap = new HashMap<>(aiToProfile.size());
-        allPlayers.forEach(player -> immutablePlayerMap.put(player.getId(), player));
     }
 
-    private CreatedPlayerNotification createAiPlayer(Map.Entry<AI, ProfileMessage> ai, List<Node> grid, List<Integer> startingOrder, int leeway, int laps, int maxHitpoints, Tires defaultTires) {
-        // Recreate track for each player, so nothing bad happens if AI mutates it.
-        final int playerCount = allPlayers.size();
-        final String playerId = "p" + (playerCount + 1);
-        final int gridPosition = startingOrder.get(playerCount);
-        final Node startNode = grid.get(gridPosition);
-        int totalHP = maxHitpoints * ai.getKey().getHitpointsMultiplier() / 100;
-        totalHP = Math.min(SettingsField.maxHP, totalHP);
-        totalHP = Math.max(SettingsField.minHP, totalHP);
-        final LocalPlayer player = new LocalPlayer(playerId, startNode, startNode.getGridAngle(), laps, this, leeway, totalHP, defaultTires, ai.getValue().getColors());
-        current = player;
-        log.info("Initializing player " + playerId);
-        final String name = ai.getValue().getName();
-        final UUID id = ai.getValue().getId();
-        log.info("Initialization done, player " + name + " starts from position " + (startingOrder.get(playerCount) + 1));
-        player.setName(name);
-        player.setId(id);
-        players.add(player);
-        allPlayers.add(player);
-        player.setGridPosition(gridPosition + 1);
-        aiMap.put(player, ai.getKey());
-        return new CreatedPlayerNotification(current.getId(), name, startNode.getId(), maxHitpoints, laps, ai.getValue().getColors(), startNode.getGridAngle(), defaultTires);
+    @Override
+    public void rolled(Integer roll) {
+        this.roll = roll;
+        repaint();
     }
 
-    void notifyAll(Object notification) {
-        aiMap.values().forEach(a -> a.notify(notification));
+    @Override
+    public void roundFinished(List<LocalPlayer> standings) {
+        this.standings = new ArrayList<>(standings);
+        ++weatherIndex;
     }
 
-    private <T> T getAiInput(Supplier<T> supplier, int timeout) {
-        T result = null;
-        boolean exception = false;
-        final long startTime = System.currentTimeMillis();
-        final CompletableFuture<T> future = CompletableFuture.supplyAsync(supplier);
-        try {
-            if (enableTimeout) {
-                result = future.get(timeout + current.getLeeway(), TimeUnit.MILLISECONDS);
-            } else {
-                result = future.get();
-            }
-        } catch (TimeoutException e) {
-            future.cancel(true);
-            exception = true;
-            log.log(Level.WARNING, "AI request timed out", e);
-        } catch (InterruptedException e) {
-            future.cancel(true);
-            exception = true;
-            log.log(Level.WARNING, "AI request interrupted", e);
-        } catch (ExecutionException e) {
-            exception = true;
-            log.log(Level.WARNING, "AI request raised an exception", e);
-        }
-        final long timeSpent = System.currentTimeMillis() - startTime;
-        current.recordTimeUsed(timeSpent, exception);
-        if (enableTimeout && timeSpent > timeout) {
-            current.reduceLeeway(timeSpent - timeout);
-        }
-        final AI ai = aiMap.get(current);
-        if (ai instanceof RemoteAI) {
-            final RemoteAI client = (RemoteAI) ai;
-            if (!client.isConnected() && disconnectedPlayers.add(current)) {
-                current.setName(current.getName() + " (DC)");
-            }
+    @Override
+    public void raceFinished(FinalStandings fs) {
+        if (resultStorage != null) {
+            resultStorage.updateResult(fs);
         }
-        return result;
+        finalStandings = fs.getStats();
     }
 
     @Override
     public void run() {
-        while (!stopped) {
-            current.beginTurn();
-            final AI ai = aiMap.get(current);
-            final GameState gameState = ApiHelper.buildGameState(data.getTrackId(), allPlayers);
-            log.info("Querying gear input from AI " + current.getNameAndId());
-            final Gear gearResponse = getAiInput(() -> ai.selectGear(gameState), gearTimeoutInMillis);
-            if (ai instanceof ManualAI || allPlayers.stream().filter(pl -> !pl.isStopped()).map(aiMap::get).noneMatch(p -> p instanceof ManualAI)) {
-                updateHitpointMap(gameState);
-            }
-            final Tires newTires = gearResponse == null ? null : gearResponse.getTires();
-            current.changeTires(newTires);
-            final Integer selectedGear = gearResponse == null ? null : gearResponse.getGear();
-            if (selectedGear != null && current.switchGear(selectedGear)) {
-                log.info("Gear input received: " + selectedGear);
-            } else {
-                current.useCurrentGear();
-                log.warning("Invalid gear selection " + selectedGear + ", using current gear instead");
-            }
-            if (previous != null) {
-                previous.clearRoute();
-            }
-            roll = current.roll(rng);
-            repaint();
-            final Moves allMoves = current.findAllTargets(roll, data.getTrackId(), players, getWeather(), totalLaps);
-            if (current.getLeeway() <= 0) {
-                log.info("Player " + current.getNameAndId() + " used his timeout leeway and was dropped from the game");
-                current.stop();
-            } else if (allMoves.getMoves().isEmpty()) {
-                log.info("No valid targets after dice roll " + roll + ", DNF");
-                current.stop();
-            } else {
-                log.info("Querying move input from AI " + current.getNameAndId());
-                final SelectedIndex moveResponse = getAiInput(() -> ai.selectMove(allMoves), moveTimeoutInMillis);
-                Integer selectedIndex = moveResponse == null ? null : moveResponse.getIndex();
-                if (selectedIndex == null || selectedIndex < 0 || selectedIndex >= allMoves.getMoves().size()) {
-                    log.warning("Invalid move selection " + selectedIndex + ", using index 0 instead");
-                    selectedIndex = 0;
-                } else {
-                    log.info("Move input received: " + selectedIndex);
-                }
-                current.move(selectedIndex);
-                current.collide(players, collisionMap, rng);
-                if (roll == 20 || roll == 30) {
-                    LocalPlayer.possiblyAddEngineDamage(players, rng);
-                }
-            }
-            roll = null;
-            nextPlayer();
-            repaint();
-        }
-        if (!interrupted) {
-            final List<PlayerStats> stats = new ArrayList<>();
-            for (int i = 0; i < stoppedPlayers.size(); i++) {
-                final LocalPlayer player = stoppedPlayers.get(i);
-                final PlayerStats playerStats = player.getStatistics(i + 1);
-                stats.add(playerStats);
-            }
-            final FinalStandings fs = new FinalStandings(stats, resultStorage != null);
-            if (resultStorage != null) {
-                resultStorage.updateResult(fs);
-            }
-            finalStandings = fs.getStats();
-            notifyAll(fs);
+        if (engine.race() != null) {
             if (lobby != null) {
                 lobby.close();
             }
@@ -294,9 +154,8 @@ public class Main extends Game implements Runnable {
     @Override
     protected void exit() {
         // This will terminate loop waiting for player input
-        stopped = true;
-        interrupted = true;
-        aiMap.values().forEach(ai -> {
+        engine.stop();
+        engine.getAIs().forEach(ai -> {
             if (ai instanceof ManualAI) {
                 ((ManualAI) ai).interrupted = true;
             }
@@ -333,63 +192,7 @@ public class Main extends Game implements Runnable {
         }
     }
 
-    private void nextPlayer() {
-	    // Drop stopped players
-	    final Iterator<LocalPlayer> it = players.iterator();
-	    while (it.hasNext()) {
-	        final LocalPlayer player = it.next();
-	        if (player.isStopped()) {
-	            stoppedPlayers.add(player);
-	            waitingPlayers.remove(player);
-	            it.remove();
-            }
-        }
-        if (waitingPlayers.isEmpty()) {
-            if (players.isEmpty()) {
-                // Making a clone, because sorting depends on the order of stoppedPlayers list
-                final List<LocalPlayer> clone = new ArrayList<>(stoppedPlayers);
-                stoppedPlayers.sort((p1, p2) -> p1.compareTo(p2, clone));
-                // This will make the game thread to stop.
-                stopped = true;
-                return;
-            }
-            // Set turn order for next round
-            waitingPlayers.addAll(players);
-            waitingPlayers.sort((p1, p2) -> p1.compareTo(p2, stoppedPlayers));
-            // Sort info box contents to match with current standings and turn order
-            allPlayers.sort((p1, p2) -> p1.compareTo(p2, stoppedPlayers));
-            standings = new ArrayList<>(allPlayers);
-            notifyAll(new Standings(allPlayers));
-            ++weatherIndex;
-        }
-        previous = current;
-        current = waitingPlayers.remove(0);
-    }
-
-    static class Params {
-        private Params() {
-        }
-        Params(int laps, int animationDelayMs, int timePerTurnMs, int leewayMs, int maxHitpoints, boolean tireChanges) {
-            this.laps = laps;
-            this.animationDelayInMillis = animationDelayMs;
-            this.gearTimeoutInMillis = timePerTurnMs;
-            this.moveTimeoutInMillis = timePerTurnMs;
-            this.leeway = leewayMs;
-            this.maxHitpoints = maxHitpoints;
-            this.tireChanges = tireChanges;
-        }
-        private int animationDelayInMillis = 100;
-        private int gearTimeoutInMillis = 3000;
-        private int moveTimeoutInMillis = 3000;
-        private int leeway = 3600000;
-        private Long seed = null;
-        private boolean randomizeStartingOrder = false;
-        private boolean tireChanges = false;
-        private int laps = 1;
-        private int maxHitpoints = 18;
-    }
-
-    private static void showGameSettings(JFrame frame, JPanel panel, Lobby lobby, List<Profile> profiles, Params params, WindowChanger listener) {
+    private static void showGameSettings(JFrame frame, JPanel panel, Lobby lobby, List<Profile> profiles, RaceEngine.Params params, WindowChanger listener) {
         final List<ProfileMessage> localProfiles = profiles.stream().map(ProfileMessage::new).collect(Collectors.toList());
         final JPanel playerPanel = new JPanel(new GridLayout(5, 2));
         final List<PlayerSlot> slots = new ArrayList<>();
@@ -416,7 +219,7 @@ public class Main extends Game implements Runnable {
         final JCheckBox randomStartingOrder = new JCheckBox("Randomize starting order", settings.randomStartOrder);
         final JCheckBox tireChanges = new JCheckBox("Enable weather rules", settings.tireChanges);
         final SettingsField laps = new SettingsField(lobbyPanel, "Laps", Integer.toString(settings.laps), 1, 200);
-        final SettingsField hitpoints = new SettingsField(lobbyPanel, "Hitpoints", Integer.toString(settings.maxHitpoints), SettingsField.minHP, SettingsField.maxHP);
+        final SettingsField hitpoints = new SettingsField(lobbyPanel, "Hitpoints", Integer.toString(settings.maxHitpoints), RaceEngine.minHP, RaceEngine.maxHP);
         final SettingsField animationDelay = new SettingsField(lobbyPanel, "Animation delay (ms)", Integer.toString(settings.animationDelay), 0, 1000);
         final SettingsField time = new SettingsField(lobbyPanel, "Time per turn (s)", Integer.toString(settings.timePerTurn), 0, 3600);
         final SettingsField leeway = new SettingsField(lobbyPanel, "Time leeway (s)", Integer.toString(settings.leeway), 0, 36000);
@@ -551,7 +354,7 @@ public class Main extends Game implements Runnable {
         buttonPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
         contents.add(buttonPanel);
         contents.add(profilePanel);
-        Params params = new Params();
+        RaceEngine.Params params = new RaceEngine.Params();
 
         final JButton singlePlayerButton = new JButton("Single Race");
         singlePlayerButton.addActionListener(e -> showGameSettings(f, p, null, profiles, params, listener));
@@ -780,17 +583,20 @@ public class Main extends Game implements Runnable {
         });
         final JButton joinMultiplayerButton = new JButton("Join Multiplayer");
         joinMultiplayerButton.addActionListener(e -> {
-            String result = (String) JOptionPane.showInputDialog(p, "IP address and port", "IP address and port", JOptionPane.PLAIN_MESSAGE,  null, null, settings.server);
+            String result = (String) JOptionPane.showInputDialog(p, "IP address and port, optionally followed by /game", "IP address and port", JOptionPane.PLAIN_MESSAGE,  null, null, settings.server);
             if (result == null) {
                 return;
             }
-            String[] addressAndPort = result.split(":");
+            // Dedicated servers host many games, which are selected by id
+            final int gameSeparator = result.indexOf('/');
+            final String gameId = gameSeparator < 0 ? null : result.substring(gameSeparator + 1);
+            String[] addressAndPort = (gameSeparator < 0 ? result : result.substring(0, gameSeparator)).split(":");
             try {
                 if (addressAndPort.length == 2) {
                     final int port = Integer.parseInt(addressAndPort[1]);
                     Socket socket = new Socket(addressAndPort[0], port);
                     settings.server = result;
-                    final Client client = new Client(f, socket, p, profilePanel.getActiveProfile());
+                    final Client client = new Client(f, socket, gameId, p, profilePanel.getActiveProfile());
                     listener.contentChanged(client, null, client, "client", true);
                     setContent(f, client);
                     new Thread(client).start();
@@ -884,6 +690,7 @@ public class Main extends Game implements Runnable {
             profiles.get(0).setActive(true);
         }
         f.setIconImages(ImageCache.getCarIcons());
+        TrackCatalog.refreshInBackground();
         /* For mac build only
         if (Application.getApplication() != null) {
             Application.getApplication().setDockIconImage(f.getIconImage());
@@ -893,6 +700,6 @@ public class Main extends Game implements Runnable {
 
     @Override
     public LocalPlayer getCurrent() {
-        return current;
+        return engine == null ? null : engine.getCurrent();
     }
 }
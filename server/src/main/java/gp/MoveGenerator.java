@@ -0,0 +1,331 @@
+package gp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import gp.ai.Node;
+import gp.ai.TrackGraph;
+
+/**
+ * Finds nodes which can be reached by moving an exact distance, together with the
+ * curve overshoot damage of reaching them.
+ *
+ * A single search explores all distances up to the given maximum, after which
+ * select() picks the targets of any distance within it, e.g. for all braking
+ * options of one dice roll. This works because a route can overshoot a curve
+ * only once (entering the next curve is not allowed after that), so damage of
+ * each visited state is either zero or the distance minus the distance of the
+ * overshot curve exit.
+ *
+ * Works on the int-indexed track graph and reuses its scratch arrays between
+ * searches, so instances are confined to one thread, see forNode(). Results
+ * are valid until the next search on the same thread. Routes are kept only as
+ * parent pointers and materialized on request.
+ */
+public final class MoveGenerator {
+    private static final ThreadLocal<MoveGenerator> generators = ThreadLocal.withInitial(MoveGenerator::new);
+
+    private TrackGraph graph;
+    private int epoch;
+    private int[] forbidden = new int[0];
+    // Search states form a tree through parent pointers, one state for each (node, distance) visit.
+    private int[] stateNode = new int[64];
+    private int[] stateParent = new int[64];
+    private int[] stateDistance = new int[64];
+    private int[] stateExit = new int[64]; // distance of the overshot curve exit, or -1
+    private int stateCount;
+    // States bucketed by distance, states of distance d are at byDistance[distanceStart[d] .. distanceStart[d + 1] - 1]
+    private int[] byDistance = new int[64];
+    private int[] distanceStart = new int[32];
+    // States which stopped at finish line on final lap, they are targets for any larger distance
+    private int[] finishStates = new int[8];
+    private int finishCount;
+    private int maxDistance;
+    // One level of visited and layer marks for each nested search started at a curve exit
+    private final List<Level> levels = new ArrayList<>();
+
+    // Parameters which stay the same in nested searches
+    private boolean finalLap;
+    private boolean allowPitEntry;
+    private int forbiddenToken;
+
+    // Targets of the selected distance
+    private int[] targetMark = new int[0];
+    private int[] targetDamage = new int[0];
+    private int[] targetState = new int[0];
+    private int[] targets = new int[0];
+    private int targetCount;
+
+    private static final class Level {
+        private final int[] visited;
+        private final int[] layer;
+        private int[] current = new int[16];
+        private int[] next = new int[16];
+
+        private Level(int size) {
+            visited = new int[size];
+            layer = new int[size];
+        }
+    }
+
+    private MoveGenerator() {
+    }
+
+    /**
+     * Returns the generator of the calling thread, prepared for the track of the given node.
+     */
+    public static MoveGenerator forNode(Node node) {
+        final TrackGraph graph = node.getGraph();
+        if (graph == null) {
+            throw new RuntimeException("Node " + node.getId() + " does not belong to a finalized track");
+        }
+        final MoveGenerator generator = generators.get();
+        if (generator.graph != graph) {
+            final int size = graph.size();
+            generator.graph = graph;
+            generator.forbidden = new int[size];
+            generator.targetMark = new int[size];
+            generator.targetDamage = new int[size];
+            generator.targetState = new int[size];
+            generator.targets = new int[size];
+            generator.levels.clear();
+            generator.epoch = 0;
+        }
+        return generator;
+    }
+
+    /**
+     * Explores all moves from start node up to the given distance. Use select() to get the
+     * targets of a certain distance.
+     */
+    public void search(Node start, int maxDistance, Set<Node> forbiddenNodes, int stopsDone, boolean finalLap, boolean allowPitEntry) {
+        if (epoch > Integer.MAX_VALUE / 2) {
+            Arrays.fill(forbidden, 0);
+            Arrays.fill(targetMark, 0);
+            levels.clear();
+            epoch = 0;
+        }
+        forbiddenToken = ++epoch;
+        for (Node node : forbiddenNodes) {
+            forbidden[node.getId()] = forbiddenToken;
+        }
+        this.finalLap = finalLap;
+        this.allowPitEntry = allowPitEntry;
+        this.maxDistance = Math.max(-1, maxDistance);
+        stateCount = 0;
+        finishCount = 0;
+        targetCount = 0;
+        if (maxDistance >= 0) {
+            search(0, start.getId(), -1, 0, -1, true, stopsDone);
+        }
+        bucketStates();
+    }
+
+    /**
+     * Selects targets at the given distance, which must not exceed the searched maximum.
+     * Returns the number of targets, which can be then queried with index from 0 to the
+     * returned value - 1.
+     */
+    public int select(int distance) {
+        final int token = ++epoch;
+        targetCount = 0;
+        if (distance < 0 || distance > maxDistance) {
+            return 0;
+        }
+        for (int i = distanceStart[distance], end = distanceStart[distance + 1]; i < end; ++i) {
+            addTarget(token, byDistance[i], distance);
+        }
+        for (int i = 0; i < finishCount; ++i) {
+            if (stateDistance[finishStates[i]] < distance) {
+                addTarget(token, finishStates[i], distance);
+            }
+        }
+        return targetCount;
+    }
+
+    public int getTargetId(int index) {
+        return targets[index];
+    }
+
+    public Node getTarget(int index) {
+        return graph.node(targets[index]);
+    }
+
+    public int getDamage(int index) {
+        return targetDamage[targets[index]];
+    }
+
+    /**
+     * Returns index of the selected target with given node identifier, or -1 if it was not found.
+     */
+    public int indexOf(int nodeId) {
+        for (int i = 0; i < targetCount; ++i) {
+            if (targets[i] == nodeId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns route from start node to the target, both included.
+     */
+    public List<Node> getPath(int index) {
+        final int state = targetState[targets[index]];
+        int length = 0;
+        for (int s = state; s != -1; s = stateParent[s]) {
+            ++length;
+        }
+        final Node[] path = new Node[length];
+        for (int s = state; s != -1; s = stateParent[s]) {
+            path[--length] = graph.node(stateNode[s]);
+        }
+        final List<Node> result = new ArrayList<>(path.length);
+        Collections.addAll(result, path);
+        return result;
+    }
+
+    /**
+     * Returns true if route to the target passes through any of the given nodes.
+     */
+    public boolean pathContains(int index, Set<Node> nodes) {
+        for (int s = targetState[targets[index]]; s != -1; s = stateParent[s]) {
+            if (nodes.contains(graph.node(stateNode[s]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addTarget(int token, int state, int distance) {
+        final int node = stateNode[state];
+        final int exit = stateExit[state];
+        final int damage = exit < 0 ? 0 : distance - exit;
+        if (targetMark[node] != token) {
+            targetMark[node] = token;
+            targets[targetCount++] = node;
+        } else if (targetDamage[node] <= damage) {
+            return;
+        }
+        targetDamage[node] = damage;
+        targetState[node] = state;
+    }
+
+    private void bucketStates() {
+        if (distanceStart.length < maxDistance + 3) {
+            distanceStart = new int[maxDistance + 3];
+        }
+        if (byDistance.length < stateCount) {
+            byDistance = new int[stateNode.length];
+        }
+        Arrays.fill(distanceStart, 0, maxDistance + 3, 0);
+        for (int s = 0; s < stateCount; ++s) {
+            ++distanceStart[stateDistance[s] + 2];
+        }
+        for (int d = 2; d < maxDistance + 3; ++d) {
+            distanceStart[d] += distanceStart[d - 1];
+        }
+        for (int s = 0; s < stateCount; ++s) {
+            byDistance[distanceStart[stateDistance[s] + 1]++] = s;
+        }
+    }
+
+    private Level getLevel(int depth) {
+        while (levels.size() <= depth) {
+            levels.add(new Level(graph.size()));
+        }
+        return levels.get(depth);
+    }
+
+    private int addState(int node, int parent, int distance, int exit) {
+        if (stateCount == stateNode.length) {
+            final int capacity = stateCount * 2;
+            stateNode = Arrays.copyOf(stateNode, capacity);
+            stateParent = Arrays.copyOf(stateParent, capacity);
+            stateDistance = Arrays.copyOf(stateDistance, capacity);
+            stateExit = Arrays.copyOf(stateExit, capacity);
+        }
+        stateNode[stateCount] = node;
+        stateParent[stateCount] = parent;
+        stateDistance[stateCount] = distance;
+        stateExit[stateCount] = exit;
+        return stateCount++;
+    }
+
+    // Straight nodes are visited only once per search to find the shortest routes in straights, curve
+    // nodes can be visited at every distance. Curve exits continue in a nested search, which may
+    // prohibit entering the next curve.
+    private void search(int depth, int start, int parentState, int startDistance, int exit, boolean allowCurveEntry, int stopsDone) {
+        final Level level = getLevel(depth);
+        final int token = ++epoch;
+        final int layerBase = epoch - startDistance;
+        epoch += maxDistance + 1;
+        int currentCount = 1;
+        level.current[0] = addState(start, parentState, startDistance, exit);
+        level.layer[start] = layerBase + startDistance;
+        if (!graph.isCurve(start)) {
+            level.visited[start] = token;
+        }
+        final boolean startHasFinish = graph.hasFinish(start);
+        for (int distance = startDistance; distance < maxDistance && currentCount > 0; ++distance) {
+            int nextCount = 0;
+            for (int i = 0; i < currentCount; ++i) {
+                final int state = level.current[i];
+                final int node = stateNode[state];
+                if (finalLap && !startHasFinish && graph.hasFinish(node)) {
+                    if (finishCount == finishStates.length) {
+                        finishStates = Arrays.copyOf(finishStates, finishCount * 2);
+                    }
+                    finishStates[finishCount++] = state;
+                    continue;
+                }
+                final boolean nodeIsCurve = graph.isCurve(node);
+                for (int c = graph.childStart(node), end = graph.childEnd(node); c < end; ++c) {
+                    final int next = graph.child(c);
+                    if (forbidden[next] == forbiddenToken) {
+                        // node is blocked
+                        continue;
+                    }
+                    if (!allowPitEntry && graph.isPit(next)) {
+                        // cannot enter pits on final lap or with too large gear
+                        continue;
+                    }
+                    final boolean nextIsCurve = graph.isCurve(next);
+                    if (nodeIsCurve && !nextIsCurve) {
+                        // exiting curve, overshooting by one stop causes damage for the remaining distance
+                        final int stopsToDo = graph.stopCount(node) - stopsDone;
+                        if (stopsToDo <= 1) {
+                            search(depth + 1, next, state, distance + 1, stopsToDo <= 0 ? exit : distance, stopsToDo <= 0, 0);
+                        }
+                        continue;
+                    }
+                    if (!nodeIsCurve && !nextIsCurve) {
+                        // straight
+                        if (level.visited[next] == token) {
+                            continue;
+                        }
+                        level.visited[next] = token;
+                    } else if (!nodeIsCurve && !allowCurveEntry) {
+                        // entering curve
+                        continue;
+                    }
+                    final int layerToken = layerBase + distance + 1;
+                    if (level.layer[next] != layerToken) {
+                        level.layer[next] = layerToken;
+                        if (nextCount == level.next.length) {
+                            level.next = Arrays.copyOf(level.next, nextCount * 2);
+                        }
+                        level.next[nextCount++] = addState(next, state, distance + 1, exit);
+                    }
+                }
+            }
+            final int[] swap = level.current;
+            level.current = level.next;
+            level.next = swap;
+            currentCount = nextCount;
+        }
+    }
+}
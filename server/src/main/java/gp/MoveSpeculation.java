@@ -0,0 +1,76 @@
+package gp;
+
+import gp.ai.Gear;
+import gp.model.Moves;
+import gp.model.Weather;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Searches the valid moves of the current player for every roll of every gear it can select,
+ * while the player is still selecting the gear. Nothing else moves before the roll, so the moves
+ * for the actual roll can be taken from the results instead of searching them after the roll.
+ * Gears closest to the current one are searched first, since they are selected most often.
+ */
+final class MoveSpeculation {
+    private static final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+        final Thread thread = new Thread(r, "Move speculation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LocalPlayer.TargetSearch search;
+    private final Map<Integer, Integer> hitpointsByGear = new HashMap<>();
+    private final Map<Integer, Future<Map<Integer, LocalPlayer.Targets>>> targetsByGear = new HashMap<>();
+
+    MoveSpeculation(LocalPlayer player, List<LocalPlayer> players, Weather weather, int totalLaps, String gameId) {
+        search = player.prepareSearch(players, weather, totalLaps);
+        final int currentGear = Math.max(1, player.gear);
+        for (int delta = 0; delta < 6; ++delta) {
+            for (int gear : new int[] { currentGear + delta, currentGear - delta }) {
+                final int damage = player.getGearSwitchDamage(gear);
+                if (damage < 0 || targetsByGear.containsKey(gear)) {
+                    continue;
+                }
+                final int hitpoints = player.hitpoints - damage;
+                hitpointsByGear.put(gear, hitpoints);
+                targetsByGear.put(gear, executor.submit(() -> {
+                    final Map<Integer, LocalPlayer.Targets> targets = new HashMap<>();
+                    for (int roll : Gear.getDistribution(gear)) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            break;
+                        }
+                        targets.computeIfAbsent(roll, r -> search.findAllTargets(r, gear, hitpoints, gameId));
+                    }
+                    return targets;
+                }));
+            }
+        }
+    }
+
+    /**
+     * Returns the moves of the player for the roll, or null if they have not been searched yet,
+     * or the player has changed in a way which the search did not expect.
+     */
+    Moves getMoves(LocalPlayer player, int roll) {
+        final Future<Map<Integer, LocalPlayer.Targets>> future = targetsByGear.get(player.gear);
+        if (future == null || !future.isDone() || future.isCancelled() || !search.isValidFor(player)
+                || hitpointsByGear.get(player.gear) != player.hitpoints) {
+            return null;
+        }
+        try {
+            final LocalPlayer.Targets targets = future.get().get(roll);
+            return targets == null ? null : player.useTargets(targets);
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stops the searches which have not finished yet.
+     */
+    void cancel() {
+        targetsByGear.values().forEach(future -> future.cancel(true));
+    }
+}
@@ -0,0 +1,157 @@
+package gp;
+
+import gp.model.MovementNotification;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Messages waiting to be written to a client, drained by a writer thread of its own so that
+ * the game loop never waits for the network. Messages which are queued together are written
+ * with a single flush.
+ *
+ * A client which falls behind gets only the last of the consecutive movement notifications of a
+ * player. If the backlog still grows over the limit, the queue is closed and the client is dropped.
+ */
+final class OutboundQueue {
+    private static final int coalesceThreshold = 64;
+    private static final int maxDepth = 1024;
+
+    private final Connection connection;
+    private final Runnable onFailure;
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    // Closed queue accepts no more messages, aborted one is not written anymore
+    private boolean closed;
+    private boolean aborted;
+    private boolean writing;
+    private int highWaterMark;
+    private long coalesced;
+
+    /**
+     * Starts the writer thread. onFailure is called once if writing fails or the backlog overflows.
+     */
+    OutboundQueue(Connection connection, String name, Runnable onFailure) {
+        this.connection = connection;
+        this.onFailure = onFailure;
+        final Thread writer = new Thread(this::write, name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the message, returns false if the queue is closed.
+     */
+    boolean offer(Object message) {
+        synchronized (queue) {
+            if (closed) {
+                return false;
+            }
+            if (queue.size() >= coalesceThreshold && message instanceof MovementNotification) {
+                final Object last = queue.peekLast();
+                if (last instanceof MovementNotification && ((MovementNotification) last).getPlayerId().equals(((MovementNotification) message).getPlayerId())) {
+                    queue.pollLast();
+                    ++coalesced;
+                }
+            }
+            if (queue.size() < maxDepth) {
+                queue.add(message);
+                highWaterMark = Math.max(highWaterMark, queue.size());
+                queue.notifyAll();
+                return true;
+            }
+            abort();
+        }
+        Main.log.warning("Outbound queue of " + connection.socket.getInetAddress() + " exceeded " + maxDepth + " messages");
+        onFailure.run();
+        return false;
+    }
+
+    /**
+     * Waits until the queued messages are written, at most the given time.
+     */
+    void close(long timeoutMs) {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (queue) {
+            closed = true;
+            queue.notifyAll();
+            long remaining;
+            while ((writing || !queue.isEmpty()) && !aborted && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    queue.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            abort();
+        }
+    }
+
+    private void abort() {
+        closed = true;
+        aborted = true;
+        queue.clear();
+        queue.notifyAll();
+    }
+
+    int getDepth() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    int getHighWaterMark() {
+        synchronized (queue) {
+            return highWaterMark;
+        }
+    }
+
+    long getCoalesced() {
+        synchronized (queue) {
+            return coalesced;
+        }
+    }
+
+    private void write() {
+        final List<Object> batch = new ArrayList<>();
+        while (true) {
+            synchronized (queue) {
+                writing = false;
+                queue.notifyAll();
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException e) {
+                        abort();
+                    }
+                }
+                if (aborted || queue.isEmpty()) {
+                    return;
+                }
+                batch.addAll(queue);
+                queue.clear();
+                writing = true;
+            }
+            try {
+                for (int i = 0; i < batch.size(); ++i) {
+                    connection.send(batch.get(i), i == batch.size() - 1);
+                }
+            } catch (IOException e) {
+                synchronized (queue) {
+                    writing = false;
+                    if (aborted) {
+                        return;
+                    }
+                    abort();
+                }
+                Main.log.log(Level.WARNING, "Error when writing to client " + connection.socket.getInetAddress(), e);
+                onFailure.run();
+                return;
+            }
+            batch.clear();
+        }
+    }
+}
@@ -20,7 +20,7 @@ public class Player {
     private double angle;
     private List<List<Color>> colorVariants;
     boolean stopped;
-    private final JPanel panel; // for repaint requests needed for animations
+    private final JPanel panel; // for repaint requests needed for animations, null when headless
     private final List<Node> route = new ArrayList<>();
     private static final Color transparentWhite = new Color(1.0f, 1.0f, 1.0f, 0.3f);
     int lapsToGo;
@@ -296,7 +296,7 @@ public class Player {
             angle = Math.atan2(p2.y - p1.y, p2.x - p1.x);
             node = n;
             route.add(n);
-            panel.repaint();
+            repaint();
         }
     }
 
@@ -312,7 +312,7 @@ public class Player {
             if (hitpoints <= 0) {
                 stopped = true;
             }
-            panel.repaint();
+            repaint();
         }
     }
 
@@ -322,13 +322,19 @@ public class Player {
             if (lapsToGo < 0) {
                 stopped = true;
             }
-            panel.repaint();
+            repaint();
         }
     }
 
     void setCurveStops(int curveStops) {
         if (curveStops != this.curveStops) {
             this.curveStops = curveStops;
+            repaint();
+        }
+    }
+
+    private void repaint() {
+        if (panel != null) {
             panel.repaint();
         }
     }
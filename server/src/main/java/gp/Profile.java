@@ -3,6 +3,8 @@ package gp;
 import gp.model.PlayerStats;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -18,19 +20,31 @@ public class Profile implements Serializable {
     private int color3;
     private int color4;
     private boolean active;
-    private List<Result> results = new ArrayList<>();
+    // Results are stored in the results journal. This is only set when reading profiles which
+    // were saved before that, until the results have been moved to the journal, and when the
+    // journal cannot be written.
+    private List<Result> results;
+    private transient List<Result> journalResults;
+    private transient ResultStats stats;
     private transient Manager manager;
 
     public static class Manager {
         private final List<Profile> profiles = new ArrayList<>();
+        private final ResultJournal journal = new ResultJournal(new File("results.journal"));
 
         public void saveProfiles() {
-            try {
-                final FileOutputStream fos = new FileOutputStream("profiles.sav");
-                final ObjectOutputStream oos = new ObjectOutputStream(fos);
+            final File file = new File("profiles.sav");
+            final File tmp = new File("profiles.sav.tmp");
+            try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
                 for (Profile profile : profiles) {
                     oos.writeObject(profile);
                 }
+            } catch (IOException ex) {
+                Main.log.log(Level.SEVERE, "Writing of profiles.sav failed");
+                return;
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             } catch (IOException ex) {
                 Main.log.log(Level.SEVERE, "Writing of profiles.sav failed");
             }
@@ -81,6 +95,54 @@ public class Profile implements Serializable {
         boolean isChampionshipRace() {
             return isChampionshipRace;
         }
+
+        void write(DataOutput out) throws IOException {
+            out.writeUTF(trackId);
+            out.writeInt(totalLaps);
+            out.writeInt(totalHitpoints);
+            out.writeInt(gridPosition);
+            out.writeBoolean(complete);
+            out.writeInt(position);
+            out.writeInt(turns);
+            out.writeInt(remainingHitpoints);
+            out.writeInt(completedLaps);
+            out.writeDouble(coveredDistance);
+            out.writeLong(timeUsedMs);
+            out.writeInt(standings == null ? -1 : standings.size());
+            if (standings != null) {
+                for (UUID player : standings) {
+                    out.writeLong(player.getMostSignificantBits());
+                    out.writeLong(player.getLeastSignificantBits());
+                }
+            }
+            out.writeBoolean(isChampionshipRace);
+            out.writeBoolean(weather);
+        }
+
+        static Result read(DataInput in) throws IOException {
+            final String trackId = in.readUTF();
+            final int totalLaps = in.readInt();
+            final int totalHitpoints = in.readInt();
+            final int gridPosition = in.readInt();
+            final Result result = new Result(trackId, totalLaps, totalHitpoints, gridPosition, true, false);
+            result.complete = in.readBoolean();
+            result.position = in.readInt();
+            result.turns = in.readInt();
+            result.remainingHitpoints = in.readInt();
+            result.completedLaps = in.readInt();
+            result.coveredDistance = in.readDouble();
+            result.timeUsedMs = in.readLong();
+            final int playerCount = in.readInt();
+            if (playerCount >= 0) {
+                result.standings = new ArrayList<>(playerCount);
+                for (int i = 0; i < playerCount; ++i) {
+                    result.standings.add(new UUID(in.readLong(), in.readLong()));
+                }
+            }
+            result.isChampionshipRace = in.readBoolean();
+            result.weather = in.readBoolean();
+            return result;
+        }
     }
 
     Profile(Manager manager, String name) {
@@ -88,6 +150,7 @@ public class Profile implements Serializable {
         this.name = name;
         this.manager = manager;
         manager.profiles.add(this);
+        journalResults = new ArrayList<>();
     }
 
     public UUID getId() {
@@ -134,13 +197,33 @@ public class Profile implements Serializable {
         return active;
     }
 
+    /**
+     * Returns the results of this profile, reading them from the results journal on first call.
+     */
     List<Result> getResults() {
-        return results;
+        if (results != null) {
+            // Results are not in the journal, so they are saved in profiles.sav
+            return results;
+        }
+        if (journalResults == null) {
+            journalResults = manager.journal.load(id);
+        }
+        return journalResults;
+    }
+
+    ResultStats getStats() {
+        if (stats == null) {
+            stats = new ResultStats(getResults());
+        }
+        return stats;
     }
 
     void setManager(Profile.Manager manager) {
         this.manager = manager;
         manager.profiles.add(this);
+        if (results != null && manager.journal.migrate(id, results)) {
+            results = null;
+        }
     }
 
     void delete() {
@@ -161,8 +244,14 @@ public class Profile implements Serializable {
             players.add(stats.id);
         }
         if (myStats != null) {
+            final List<Result> results = getResults();
             if (trackId != null) {
-                results.add(new Result(trackId, myStats.lapsToGo, myStats.hitpoints, myStats.gridPosition, isSingleRace, weather));
+                final Result result = new Result(trackId, myStats.lapsToGo, myStats.hitpoints, myStats.gridPosition, isSingleRace, weather);
+                results.add(result);
+                if (stats != null) {
+                    stats.add(result);
+                }
+                journal(results.size() - 1, result, false);
             } else {
                 final Result lastResult = results.get(results.size() - 1);
                 if (!lastResult.complete) {
@@ -171,8 +260,28 @@ public class Profile implements Serializable {
                     if (myStats.position != players.indexOf(id) + 1) {
                         Main.log.log(Level.WARNING, "Standings and position do not match");
                     }
+                    if (stats != null) {
+                        stats.completed(lastResult);
+                    }
+                    // Race is over, so make sure that the result survives a crash
+                    journal(results.size() - 1, lastResult, true);
                 }
             }
         }
     }
+
+    private void journal(int index, Result result, boolean sync) {
+        if (results == null) {
+            if (manager.journal.write(id, index, result, sync)) {
+                return;
+            }
+            // Results are moved to the journal again when the profiles are loaded next time
+            Main.log.severe("Saving results of " + name + " to profiles.sav instead of the results journal");
+            results = journalResults;
+            journalResults = null;
+            manager.saveProfiles();
+        } else if (sync) {
+            manager.saveProfiles();
+        }
+    }
 }
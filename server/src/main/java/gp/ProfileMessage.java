@@ -47,6 +47,10 @@ public class ProfileMessage implements Serializable {
         return profile;
     }
 
+    static ProfileMessage createAIProfile(String name) {
+        return new ProfileMessage(name, true);
+    }
+
     static ProfileMessage readProfile(String[] line) {
         if (line.length == 6) {
             // Old format
@@ -10,16 +10,14 @@ import java.awt.*;
 import java.util.*;
 import java.util.List;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 class ProfileStats extends JDialog {
-    private final List<Profile.Result> results;
-    private Predicate<Profile.Result> trackFilter;
-    private Predicate<Profile.Result> typeFilter;
-    private Predicate<Profile.Result> playerCountFilter = r -> r.standings != null;
-    private Predicate<Profile.Result> lapCountFilter;
-    private Predicate<Profile.Result> hitpointFilter;
+    private final ResultStats stats;
+    private Predicate<ResultStats.Bucket> trackFilter;
+    private Predicate<ResultStats.Bucket> typeFilter;
+    private Predicate<ResultStats.Bucket> playerCountFilter;
+    private Predicate<ResultStats.Bucket> lapCountFilter;
+    private Predicate<ResultStats.Bucket> hitpointFilter;
     private final JLabel completedRaces = new JLabel();
     private final JLabel dnfRaces = new JLabel();
     private final JLabel completedLaps = new JLabel();
@@ -35,9 +33,8 @@ class ProfileStats extends JDialog {
 
         final Set<String> tracks = new TreeSet<>();
         final Map<String, String> trackNameToId = new HashMap<>();
-        results = profile.getResults();
-        for (final Profile.Result result : results) {
-            final String track = result.trackId;
+        stats = profile.getStats();
+        for (final String track : stats.getTrackIds()) {
             final String trackName = StringUtils.capitalize(track.substring(0, track.length() - 4));
             tracks.add(trackName);
             trackNameToId.put(trackName, track);
@@ -53,7 +50,7 @@ class ProfileStats extends JDialog {
                 this.trackFilter = null;
             } else {
                 final String trackId = trackNameToId.get(trackArray[index]);
-                this.trackFilter = r -> r.trackId.equals(trackId);
+                this.trackFilter = b -> b.trackId.equals(trackId);
             }
             updateStats();
         });
@@ -65,7 +62,7 @@ class ProfileStats extends JDialog {
                 this.typeFilter = null;
             } else {
                 final boolean championshipRaces = "Championship Races".equals(raceTypes[index]);
-                this.typeFilter = r -> r.isChampionshipRace == championshipRaces;
+                this.typeFilter = b -> b.championshipRace == championshipRaces;
             }
             updateStats();
         });
@@ -76,7 +73,7 @@ class ProfileStats extends JDialog {
             final String[] interval = playerCounts[index].split("-");
             final int min = Integer.parseInt(interval[0]);
             final int max = interval.length > 1 ? Integer.parseInt(interval[1]) : min;
-            playerCountFilter = r -> r.standings != null && r.standings.size() >= min && r.standings.size() <= max;
+            playerCountFilter = b -> b.playerCount >= min && b.playerCount <= max;
             updateStats();
         });
         final JTextField lapFilter = new JTextField();
@@ -85,7 +82,7 @@ class ProfileStats extends JDialog {
             void updateFilter() {
                 try {
                     final int value = Integer.parseInt(lapFilter.getText());
-                    lapCountFilter = r -> r.totalLaps == value;
+                    lapCountFilter = b -> b.totalLaps == value;
                 } catch (NumberFormatException e) {
                     lapCountFilter = null;
                 }
@@ -97,7 +94,7 @@ class ProfileStats extends JDialog {
             void updateFilter() {
                 try {
                     final int value = Integer.parseInt(hpFilter.getText());
-                    hitpointFilter = r -> r.totalHitpoints == value;
+                    hitpointFilter = b -> b.totalHitpoints == value;
                 } catch (NumberFormatException e) {
                     hitpointFilter = null;
                 }
@@ -107,12 +104,12 @@ class ProfileStats extends JDialog {
         final JPanel contents = new JPanel(new GridLayout(0, 2));
         contents.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
         contents.add(new JLabel("Total Races:"));
-        contents.add(new JLabel(Integer.toString(results.size())));
+        contents.add(new JLabel(Integer.toString(stats.getTotalRaces())));
         contents.add(new JLabel("Aborted Races:"));
-        contents.add(new JLabel(Long.toString(results.stream().filter(r -> !r.isComplete()).count())));
+        contents.add(new JLabel(Integer.toString(stats.getAbortedRaces())));
 
         final String timeString;
-        final long timeSeconds = results.stream().mapToLong(r -> r.timeUsedMs).sum() / 1000;
+        final long timeSeconds = stats.getTimeUsedMs() / 1000;
         final long timeMinutes = timeSeconds / 60;
         final long timeHours = timeSeconds / 3600;
         final long timeDays = timeSeconds / (3600 * 24);
@@ -156,25 +153,24 @@ class ProfileStats extends JDialog {
     }
 
     private void updateStats() {
-        Stream<Profile.Result> stream = results.stream().filter(Profile.Result::isComplete);
-        if (trackFilter != null) stream = stream.filter(trackFilter);
-        if (typeFilter != null) stream = stream.filter(typeFilter);
-        if (lapCountFilter != null) stream = stream.filter(lapCountFilter);
-        if (hitpointFilter != null) stream = stream.filter(hitpointFilter);
-        stream = stream.filter(playerCountFilter);
-        final List<Profile.Result> filteredResults = stream.collect(Collectors.toList());
-        completedRaces.setText(Long.toString(filteredResults.stream().filter(Profile.Result::isComplete).count()));
-        dnfRaces.setText(Long.toString(filteredResults.stream().filter(r -> r.remainingHitpoints <= 0).count()));
-        completedLaps.setText(Integer.toString(filteredResults.stream().mapToInt(r -> r.completedLaps).sum()));
-        wins.setText(Long.toString(filteredResults.stream().filter(Profile.Result::isComplete).filter(r -> r.position == 1).count()));
-        podiums.setText(Long.toString(filteredResults.stream().filter(Profile.Result::isComplete).filter(r -> r.position <= 3).count()));
-        if (filteredResults.stream().noneMatch(Profile.Result::isChampionshipRace)) {
+        Predicate<ResultStats.Bucket> filter = b -> true;
+        if (trackFilter != null) filter = filter.and(trackFilter);
+        if (typeFilter != null) filter = filter.and(typeFilter);
+        if (lapCountFilter != null) filter = filter.and(lapCountFilter);
+        if (hitpointFilter != null) filter = filter.and(hitpointFilter);
+        if (playerCountFilter != null) filter = filter.and(playerCountFilter);
+        final ResultStats.Aggregate filteredStats = stats.sum(filter);
+        completedRaces.setText(Integer.toString(filteredStats.completedRaces));
+        dnfRaces.setText(Integer.toString(filteredStats.dnfRaces));
+        completedLaps.setText(Integer.toString(filteredStats.completedLaps));
+        wins.setText(Integer.toString(filteredStats.wins));
+        podiums.setText(Integer.toString(filteredStats.podiums));
+        if (filteredStats.championshipRaces == 0) {
             championshipPoints.setText("");
         } else {
-            championshipPoints.setText(Integer.toString(filteredResults.stream().filter(Profile.Result::isComplete).filter(Profile.Result::isChampionshipRace).mapToInt(r -> Season.getDefaultPoints(r.position)).sum()));
+            championshipPoints.setText(Integer.toString(filteredStats.championshipPoints));
         }
-        final int minTurns = filteredResults.stream().filter(r -> r.remainingHitpoints > 0).filter(r -> r.turns > 0).mapToInt(r -> r.turns).min().orElse(0);
-        bestResult.setText(minTurns > 0 ? Integer.toString(minTurns) : "");
+        bestResult.setText(filteredStats.minTurns > 0 ? Integer.toString(filteredStats.minTurns) : "");
     }
 
     abstract class FieldListener implements DocumentListener {
@@ -0,0 +1,405 @@
+package gp;
+
+import gp.ai.AI;
+import gp.ai.Deadline;
+import gp.ai.Node;
+import gp.ai.TrackData;
+import gp.model.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Runs the turn loop of a single race without any user interface. Swing
+ * frontends observe the race through a Listener.
+ */
+public class RaceEngine {
+
+    /**
+     * Callbacks for rendering the race. All methods are called from the game thread.
+     */
+    public interface Listener {
+        // Player state changed in a way which might be animated
+        default void animate() {}
+
+        default void hitpointsChanged(LocalPlayer player, int loss, HitpointNotification.Source source) {}
+
+        default void gearSelected(AI ai, GameState gameState) {}
+
+        // Roll is null when the turn is over
+        default void rolled(Integer roll) {}
+
+        default void roundFinished(List<LocalPlayer> standings) {}
+
+        default void raceFinished(FinalStandings standings) {}
+    }
+
+    public static class Params {
+        Params() {
+        }
+        Params(int laps, int animationDelayMs, int timePerTurnMs, int leewayMs, int maxHitpoints, boolean tireChanges) {
+            this.laps = laps;
+            this.animationDelayInMillis = animationDelayMs;
+            this.gearTimeoutInMillis = timePerTurnMs;
+            this.moveTimeoutInMillis = timePerTurnMs;
+            this.leeway = leewayMs;
+            this.maxHitpoints = maxHitpoints;
+            this.tireChanges = tireChanges;
+        }
+        // Batch simulation: no timeouts and no animations
+        public Params(int laps, int maxHitpoints, boolean tireChanges, long seed) {
+            this(laps, 0, 0, Integer.MAX_VALUE, maxHitpoints, tireChanges);
+            this.seed = seed;
+            enableTimeout = false;
+            randomizeStartingOrder = true;
+        }
+        int animationDelayInMillis = 100;
+        int gearTimeoutInMillis = 3000;
+        int moveTimeoutInMillis = 3000;
+        int leeway = 3600000;
+        Long seed = null;
+        boolean enableTimeout = true;
+        boolean randomizeStartingOrder = false;
+        boolean tireChanges = false;
+        int laps = 1;
+        int maxHitpoints = 18;
+        // Identifies the race in game states and moves, track id by default
+        String gameId = null;
+    }
+
+    // AI requests have their own pool, so that AIs which block or run late do not starve other pools.
+    // Pool is bounded, and requests are rejected if every thread is still busy with earlier requests.
+    private static final int maxAiThreads = 256;
+    private static final ThreadPoolExecutor aiExecutor = new ThreadPoolExecutor(0, maxAiThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+        final Thread thread = new Thread(r, "AI");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // AI deadline is a bit before the engine stops waiting, so that the best answer found so far is still in time
+    private static final int aiDeadlineMarginMs = 100;
+    // Limits of the hitpoints of a car, also after the hitpoints multiplier of the AI
+    public static final int minHP = 1;
+    public static final int maxHP = 30;
+    // Seeds of races which are not given a seed, also used by frontends for other random choices
+    public static final Random random = new Random();
+
+    private final TrackData data;
+    private final String gameId;
+    private final Listener listener;
+    private final Map<Node, Set<Node>> collisionMap;
+    private LocalPlayer current;
+    private LocalPlayer previous;
+    private final List<LocalPlayer> waitingPlayers = new ArrayList<>();
+    private final List<LocalPlayer> allPlayers = new ArrayList<>();
+    private final List<LocalPlayer> players = new ArrayList<>();
+    private final List<LocalPlayer> stoppedPlayers = new ArrayList<>();
+    private final Map<LocalPlayer, AI> aiMap = new LinkedHashMap<>();
+    private final Set<LocalPlayer> disconnectedPlayers = new HashSet<>();
+    private final Random rng;
+    private final List<Weather> weatherForecast;
+    private int weatherIndex;
+    private volatile boolean stopped;
+    private volatile boolean interrupted;
+    private final boolean enableTimeout;
+    private final int gearTimeoutInMillis;
+    private final int moveTimeoutInMillis;
+    private final int totalLaps;
+    private final boolean championship;
+
+    /**
+     * Creates a headless race between the given AIs.
+     */
+    public RaceEngine(TrackData data, List<AI> ais, Params params) {
+        this(data, params, createEntrants(ais), false, new Listener() {});
+    }
+
+    RaceEngine(TrackData data, Params params, Map<AI, ProfileMessage> entrants, boolean championship, Listener listener) {
+        this.data = data;
+        this.gameId = params.gameId == null ? data.getTrackId() : params.gameId;
+        this.listener = listener;
+        this.championship = championship;
+        final long seed = params.seed == null ? random.nextLong() : params.seed;
+        this.rng = new Random(seed);
+        Main.log.info("Initializing RNG with seed " + seed);
+        weatherForecast = params.tireChanges ? Weather.forecast(data.weatherParams, params.laps * 20, rng) : null;
+        enableTimeout = params.enableTimeout;
+        gearTimeoutInMillis = params.gearTimeoutInMillis;
+        moveTimeoutInMillis = params.moveTimeoutInMillis;
+        totalLaps = params.laps;
+        collisionMap = data.getCollisionMap();
+        createGrid(params, entrants);
+        waitingPlayers.addAll(players);
+        waitingPlayers.sort((p1, p2) -> p1.compareTo(p2, stoppedPlayers));
+        final List<PlayerStats> stats = new ArrayList<>();
+        for (int i = 0; i < waitingPlayers.size(); i++) {
+            final LocalPlayer player = waitingPlayers.get(i);
+            final PlayerStats playerStats = player.getStatistics(i + 1);
+            stats.add(playerStats);
+        }
+        allPlayers.sort((p1, p2) -> p1.compareTo(p2, stoppedPlayers));
+        if (weatherForecast != null) notifyAll(new WeatherNotification(weatherForecast));
+        notifyAll(new FinalStandings(stats, championship));
+        current = waitingPlayers.remove(0);
+    }
+
+    private static Map<AI, ProfileMessage> createEntrants(List<AI> ais) {
+        final Map<AI, ProfileMessage> entrants = new LinkedHashMap<>(); // preserve order
+        for (int i = 0; i < ais.size(); ++i) {
+            entrants.put(ais.get(i), ProfileMessage.createAIProfile("AI " + (i + 1)));
+        }
+        return entrants;
+    }
+
+    private void createGrid(Params params, Map<AI, ProfileMessage> entrants) {
+        final int playerCount = entrants.size();
+        final List<Node> grid = data.getStartingGrid(playerCount);
+        final List<Integer> startingOrder = IntStream.range(0, playerCount).boxed().collect(Collectors.toList());
+        if (params.randomizeStartingOrder) {
+            Collections.shuffle(startingOrder, rng);
+        }
+        final List<CreatedPlayerNotification> notifications = new ArrayList<>();
+        for (Map.Entry<AI, ProfileMessage> e : entrants.entrySet()) {
+            final Tires defaultTires = weatherForecast == null ? null : (weatherForecast.get(0) == Weather.RAIN ? new Tires(Tires.Type.WET) : new Tires(Tires.Type.HARD));
+            notifications.add(createAiPlayer(e, grid, startingOrder, params.leeway, params.laps, params.maxHitpoints, defaultTires));
+        }
+        aiMap.forEach((player, ai) -> notifications.forEach(notification -> ai.notify(notification.controlled(notification.getPlayerId().equals(player.getId())))));
+    }
+
+    private CreatedPlayerNotification createAiPlayer(Map.Entry<AI, ProfileMessage> ai, List<Node> grid, List<Integer> startingOrder, int leeway, int laps, int maxHitpoints, Tires defaultTires) {
+        final int playerCount = allPlayers.size();
+        final String playerId = "p" + (playerCount + 1);
+        final int gridPosition = startingOrder.get(playerCount);
+        final Node startNode = grid.get(gridPosition);
+        int totalHP = maxHitpoints * ai.getKey().getHitpointsMultiplier() / 100;
+        totalHP = Math.min(maxHP, totalHP);
+        totalHP = Math.max(minHP, totalHP);
+        final LocalPlayer player = new LocalPlayer(playerId, startNode, startNode.getGridAngle(), laps, this, leeway, totalHP, defaultTires, ai.getValue().getColors());
+        Main.log.info("Initializing player " + playerId);
+        final String name = ai.getValue().getName();
+        final UUID id = ai.getValue().getId();
+        Main.log.info("Initialization done, player " + name + " starts from position " + (gridPosition + 1));
+        player.setName(name);
+        player.setId(id);
+        players.add(player);
+        allPlayers.add(player);
+        player.setGridPosition(gridPosition + 1);
+        aiMap.put(player, ai.getKey());
+        return new CreatedPlayerNotification(player.getId(), name, startNode.getId(), maxHitpoints, laps, ai.getValue().getColors(), startNode.getGridAngle(), defaultTires);
+    }
+
+    void notifyAll(Object notification) {
+        aiMap.values().forEach(a -> a.notify(notification));
+    }
+
+    void animate() {
+        listener.animate();
+    }
+
+    void hitpointsChanged(LocalPlayer player, int loss, HitpointNotification.Source source) {
+        listener.hitpointsChanged(player, loss, source);
+    }
+
+    private <T> T getAiInput(Function<Deadline, T> request, int timeout) {
+        T result = null;
+        boolean exception = false;
+        final long startTime = System.currentTimeMillis();
+        if (!enableTimeout) {
+            try {
+                result = request.apply(Deadline.NONE);
+            } catch (RuntimeException e) {
+                exception = true;
+                Main.log.log(Level.WARNING, "AI request raised an exception", e);
+            }
+            current.recordTimeUsed(System.currentTimeMillis() - startTime, exception);
+            return result;
+        }
+        final AI ai = aiMap.get(current);
+        if (ai instanceof RemoteAI) {
+            // Client stops waiting for the response at the same time
+            ((RemoteAI) ai).setDeadline(startTime + timeout + current.getLeeway());
+        }
+        final Deadline deadline = Deadline.after(Math.max(0, timeout + current.getLeeway() - aiDeadlineMarginMs));
+        try {
+            final Future<T> future = aiExecutor.submit(() -> request.apply(deadline));
+            try {
+                result = future.get(timeout + current.getLeeway(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                exception = true;
+                Main.log.log(Level.WARNING, "AI request timed out", e);
+            } catch (InterruptedException e) {
+                exception = true;
+                Main.log.log(Level.WARNING, "AI request interrupted", e);
+            } finally {
+                // AIs stop searching when the deadline is cancelled. Interrupting would close connections of remote AIs.
+                deadline.cancel();
+                future.cancel(false);
+            }
+        } catch (RejectedExecutionException e) {
+            exception = true;
+            Main.log.log(Level.WARNING, "AI request rejected, " + aiExecutor.getActiveCount() + " earlier AI requests are still running", e);
+        } catch (ExecutionException e) {
+            exception = true;
+            Main.log.log(Level.WARNING, "AI request raised an exception", e);
+        }
+        final long timeSpent = System.currentTimeMillis() - startTime;
+        current.recordTimeUsed(timeSpent, exception);
+        if (timeSpent > timeout) {
+            current.reduceLeeway(timeSpent - timeout);
+        }
+        if (ai instanceof RemoteAI) {
+            final RemoteAI client = (RemoteAI) ai;
+            if (!client.isConnected() && disconnectedPlayers.add(current)) {
+                current.setName(current.getName() + " (DC)");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs the race until every player has finished or dropped out. Returns
+     * final standings, or null if the race was stopped prematurely.
+     */
+    public FinalStandings race() {
+        while (!stopped) {
+            current.beginTurn();
+            final AI ai = aiMap.get(current);
+            final GameState gameState = ApiHelper.buildGameState(gameId, allPlayers);
+            // Batch simulations have no time to think, which the speculation could use
+            final MoveSpeculation speculation = enableTimeout ? new MoveSpeculation(current, players, getWeather(), totalLaps, gameId) : null;
+            Main.log.info("Querying gear input from AI " + current.getNameAndId());
+            final Gear gearResponse = getAiInput(deadline -> ai.selectGear(gameState, deadline), gearTimeoutInMillis);
+            listener.gearSelected(ai, gameState);
+            final Tires newTires = gearResponse == null ? null : gearResponse.getTires();
+            current.changeTires(newTires);
+            final Integer selectedGear = gearResponse == null ? null : gearResponse.getGear();
+            if (selectedGear != null && current.switchGear(selectedGear)) {
+                Main.log.info("Gear input received: " + selectedGear);
+            } else {
+                current.useCurrentGear();
+                Main.log.warning("Invalid gear selection " + selectedGear + ", using current gear instead");
+            }
+            if (previous != null) {
+                previous.clearRoute();
+            }
+            final int roll = current.roll(rng);
+            listener.rolled(roll);
+            Moves speculatedMoves = null;
+            if (speculation != null) {
+                speculatedMoves = speculation.getMoves(current, roll);
+                speculation.cancel();
+                Main.log.fine("Speculated moves " + (speculatedMoves == null ? "not available" : "used"));
+            }
+            final Moves allMoves = speculatedMoves != null ? speculatedMoves : current.findAllTargets(roll, gameId, players, getWeather(), totalLaps);
+            if (current.getLeeway() <= 0) {
+                Main.log.info("Player " + current.getNameAndId() + " used his timeout leeway and was dropped from the game");
+                current.stop();
+            } else if (allMoves.getMoves().isEmpty()) {
+                Main.log.info("No valid targets after dice roll " + roll + ", DNF");
+                current.stop();
+            } else {
+                Main.log.info("Querying move input from AI " + current.getNameAndId());
+                final SelectedIndex moveResponse = getAiInput(deadline -> ai.selectMove(allMoves, deadline), moveTimeoutInMillis);
+                Integer selectedIndex = moveResponse == null ? null : moveResponse.getIndex();
+                if (selectedIndex == null || selectedIndex < 0 || selectedIndex >= allMoves.getMoves().size()) {
+                    Main.log.warning("Invalid move selection " + selectedIndex + ", using index 0 instead");
+                    selectedIndex = 0;
+                } else {
+                    Main.log.info("Move input received: " + selectedIndex);
+                }
+                current.move(selectedIndex);
+                current.collide(players, collisionMap, rng);
+                if (roll == 20 || roll == 30) {
+                    LocalPlayer.possiblyAddEngineDamage(players, rng);
+                }
+            }
+            nextPlayer();
+            listener.rolled(null);
+        }
+        if (interrupted) {
+            return null;
+        }
+        final List<PlayerStats> stats = new ArrayList<>();
+        for (int i = 0; i < stoppedPlayers.size(); i++) {
+            final LocalPlayer player = stoppedPlayers.get(i);
+            final PlayerStats playerStats = player.getStatistics(i + 1);
+            stats.add(playerStats);
+        }
+        final FinalStandings fs = new FinalStandings(stats, championship);
+        listener.raceFinished(fs);
+        notifyAll(fs);
+        return fs;
+    }
+
+    private void nextPlayer() {
+        // Drop stopped players
+        final Iterator<LocalPlayer> it = players.iterator();
+        while (it.hasNext()) {
+            final LocalPlayer player = it.next();
+            if (player.isStopped()) {
+                stoppedPlayers.add(player);
+                waitingPlayers.remove(player);
+                it.remove();
+            }
+        }
+        if (waitingPlayers.isEmpty()) {
+            if (players.isEmpty()) {
+                // Making a clone, because sorting depends on the order of stoppedPlayers list
+                final List<LocalPlayer> clone = new ArrayList<>(stoppedPlayers);
+                stoppedPlayers.sort((p1, p2) -> p1.compareTo(p2, clone));
+                // This will make the game thread to stop.
+                stopped = true;
+                return;
+            }
+            // Set turn order for next round
+            waitingPlayers.addAll(players);
+            waitingPlayers.sort((p1, p2) -> p1.compareTo(p2, stoppedPlayers));
+            // Sort info box contents to match with current standings and turn order
+            allPlayers.sort((p1, p2) -> p1.compareTo(p2, stoppedPlayers));
+            notifyAll(new Standings(allPlayers));
+            ++weatherIndex;
+            listener.roundFinished(new ArrayList<>(allPlayers));
+        }
+        previous = current;
+        current = waitingPlayers.remove(0);
+    }
+
+    /**
+     * Terminates the race loop after the current turn.
+     */
+    public void stop() {
+        stopped = true;
+        interrupted = true;
+    }
+
+    Weather getWeather() {
+        return weatherForecast == null ? null : weatherForecast.get(Math.min(weatherForecast.size() - 1, weatherIndex));
+    }
+
+    List<Weather> getWeatherForecast() {
+        return weatherForecast;
+    }
+
+    LocalPlayer getCurrent() {
+        return current;
+    }
+
+    List<LocalPlayer> getAllPlayers() {
+        return allPlayers;
+    }
+
+    Collection<AI> getAIs() {
+        return aiMap.values();
+    }
+
+    AI getAI(LocalPlayer player) {
+        return aiMap.get(player);
+    }
+
+    TrackData getTrackData() {
+        return data;
+    }
+}
@@ -2,33 +2,61 @@ package gp;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InterruptedIOException;
 import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 
 import gp.ai.AI;
 
 import gp.ai.AmateurAI;
+import gp.ai.Deadline;
 import gp.ai.TrackData;
 import gp.model.*;
 
+/**
+ * AI which forwards requests to a client. Messages from the client are read by a dedicated
+ * reader thread, which completes the pending request when its response arrives. Messages
+ * to the client are queued, and written by the writer thread of the queue.
+ */
 public class RemoteAI implements AI {
 
-    private static final int heartBeatMs = 200;
     private final Socket socket;
-    private ObjectInputStream ois;
-    private ObjectOutputStream oos;
+    private static final int closeTimeoutMs = 1000;
+    private volatile Connection connection;
+    private OutboundQueue outbound;
     private AmateurAI fallback;
     private GameState gameState;
     private int gear;
     private Tires tires;
+    private final Object responseLock = new Object();
+    private CompletableFuture<Object> response;
+    private Class<?> responseType;
+    private volatile long deadline = Long.MAX_VALUE;
 
     RemoteAI(Socket clientSocket) {
+        this(clientSocket, null);
+    }
+
+    /**
+     * Creates AI for a client whose handshake is already done.
+     */
+    RemoteAI(Connection connection) {
+        this(connection.socket, connection);
+    }
+
+    private RemoteAI(Socket clientSocket, Connection connection) {
         this.socket = clientSocket;
         try {
-            ois = new ObjectInputStream(socket.getInputStream());
-            oos = new ObjectOutputStream(socket.getOutputStream());
+            this.connection = connection == null ? Connection.accept(socket) : connection;
+            outbound = new OutboundQueue(this.connection, "Client writer " + socket.getInetAddress(), this::close);
+            this.connection.startKeepAlive();
+            final Thread reader = new Thread(this::read, "Client reader " + socket.getInetAddress());
+            reader.setDaemon(true);
+            reader.start();
         } catch (IOException e) {
             Main.log.log(Level.SEVERE, "Error when initializing Client " + socket.getInetAddress().toString(), e);
             close();
@@ -36,52 +64,115 @@ public class RemoteAI implements AI {
     }
 
     boolean isConnected() {
-        return ois != null && oos != null;
+        return connection != null;
+    }
+
+    /**
+     * Sets the time in milliseconds after which selectGear and selectMove stop waiting for the client.
+     */
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
     }
 
-    private Object getResponse() throws IOException, ClassNotFoundException {
+    private void read() {
+        final Connection connection = this.connection;
+        if (connection == null) {
+            return;
+        }
         try {
-            return ois.readObject();
-        } catch (EOFException e) {
-            // this might be ok if there's no response yet
-            // test whether connection still exists by writing empty notification
-            try {
-                Thread.sleep(heartBeatMs);
-            } catch (InterruptedException exception) {
-                e.printStackTrace();
+            while (true) {
+                final Object message = connection.receive();
+                if (Connection.isKeepAlive(message)) {
+                    continue;
+                }
+                synchronized (responseLock) {
+                    if (response != null && responseType.isInstance(message)) {
+                        response.complete(message);
+                        response = null;
+                    } else {
+                        // Response to a request which already timed out
+                        Main.log.info("Ignoring unexpected " + message.getClass().getSimpleName() + " from client " + socket.getInetAddress());
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            // Requests to a client which is not read anymore would wait until their deadlines
+            if (this.connection == connection) {
+                Main.log.log(Level.WARNING, "Lost connection to client " + socket.getInetAddress(), e);
+                close();
             }
-            oos.writeObject(new Notification(""));
         }
-        return null;
     }
 
-    void close() {
+    /**
+     * Sends the request and waits for a response of the given type until the deadline.
+     * Returns null if the deadline passes.
+     */
+    private <T> T getResponse(Object request, Class<T> type, long deadline) throws IOException {
+        final Connection connection = this.connection;
+        if (connection == null) {
+            throw new EOFException("Connection closed");
+        }
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        synchronized (responseLock) {
+            response = future;
+            responseType = type;
+        }
         try {
-            if (ois != null) {
-                ois.close();
+            if (!outbound.offer(request)) {
+                throw new EOFException("Connection closed");
+            }
+            final long timeout = deadline == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, deadline - System.currentTimeMillis());
+            return type.cast(future.get(timeout, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (TimeoutException e) {
+            Main.log.info("Client " + socket.getInetAddress() + " did not respond in time");
+            return null;
+        } finally {
+            synchronized (responseLock) {
+                if (response == future) {
+                    response = null;
+                }
+            }
+        }
+    }
+
+    void close() {
+        final Connection connection;
+        synchronized (responseLock) {
+            connection = this.connection;
+            this.connection = null;
+            if (response != null) {
+                response.completeExceptionally(new EOFException("Connection closed"));
+                response = null;
             }
-            if (oos != null) {
-                oos.close();
+        }
+        try {
+            if (connection != null) {
+                // Messages such as Kick are written before closing
+                outbound.close(closeTimeoutMs);
+                Main.log.info("Closing connection to client " + socket.getInetAddress() + ", sent " + connection.getSentBytes() + " bytes, retained " + connection.getRetainedBytes()
+                        + " bytes, outbound queue high-water mark " + outbound.getHighWaterMark() + ", coalesced " + outbound.getCoalesced() + " movements");
+                connection.close();
+            } else {
+                socket.close();
             }
-            socket.close();
         } catch (IOException e) {
             Main.log.log(Level.WARNING, "Error when terminating Client " + socket.getInetAddress().toString(), e);
         }
-        ois = null;
-        oos = null;
     }
 
     ProfileMessage getProfile(TrackData data) {
         fallback = new AmateurAI(data);
-        if (oos != null && ois != null) {
+        if (connection != null) {
             try {
-                oos.writeObject(data);
-                Object response;
-                do {
-                    response = getResponse();
-                } while (!(response instanceof ProfileMessage));
-                return (ProfileMessage) response;
-            } catch (IOException | ClassNotFoundException e) {
+                // Lobby closes the socket if the handshake takes too long
+                return getResponse(data, ProfileMessage.class, Long.MAX_VALUE);
+            } catch (IOException e) {
                 close();
             }
         }
@@ -90,58 +181,74 @@ public class RemoteAI implements AI {
 
     @Override
     public Gear selectGear(GameState gameState) {
+        return selectGear(gameState, Deadline.NONE);
+    }
+
+    /**
+     * The deadline is passed to the fallback AI when the client has been lost. Waiting for the
+     * client ends at the time set with setDeadline.
+     */
+    @Override
+    public Gear selectGear(GameState gameState, Deadline deadline) {
         this.gameState = gameState;
-        if (oos != null && ois != null) {
+        if (connection != null) {
             try {
-                oos.writeObject(gameState);
-                Object response;
-                do {
-                    response = getResponse();
-                } while (!(response instanceof Gear));
-                gear = ((Gear) response).getGear();
-                tires = ((Gear) response).getTires();
-                return (Gear) response;
-            } catch (IOException | ClassNotFoundException e) {
+                final Gear response = getResponse(gameState, Gear.class, this.deadline);
+                Main.log.fine("Connection to client " + socket.getInetAddress() + " retains " + getRetainedBytes() + " bytes, " + getQueueDepth() + " messages queued");
+                if (response != null) {
+                    gear = response.getGear();
+                    tires = response.getTires();
+                }
+                return response;
+            } catch (IOException e) {
                 close();
                 Main.log.log(Level.WARNING, "Lost connection to client, using fallback AI instead", e);
             }
         }
         if (fallback != null) {
-            return fallback.selectGear(gameState);
+            return fallback.selectGear(gameState, deadline);
         }
         return null;
     }
 
     @Override
     public SelectedIndex selectMove(Moves allMoves) {
-        if (oos != null && ois != null) {
+        return selectMove(allMoves, Deadline.NONE);
+    }
+
+    @Override
+    public SelectedIndex selectMove(Moves allMoves, Deadline deadline) {
+        if (connection != null) {
             try {
-                oos.writeObject(allMoves);
-                Object response;
-                do {
-                    response = getResponse();
-                } while (!(response instanceof SelectedIndex));
-                return (SelectedIndex) response;
-            } catch (IOException | ClassNotFoundException e) {
+                return getResponse(allMoves, SelectedIndex.class, this.deadline);
+            } catch (IOException e) {
                 close();
                 fallback.init(gameState, gear, tires);
                 Main.log.log(Level.WARNING, "Lost connection to client, using fallback AI instead", e);
             }
         }
         if (fallback != null) {
-            return fallback.selectMove(allMoves);
+            return fallback.selectMove(allMoves, deadline);
         }
         return null;
     }
 
+    private long getRetainedBytes() {
+        final Connection connection = this.connection;
+        return connection == null ? 0 : connection.getRetainedBytes();
+    }
+
+    /**
+     * Returns the number of messages waiting to be written to the client.
+     */
+    int getQueueDepth() {
+        return connection == null ? 0 : outbound.getDepth();
+    }
+
     @Override
     public void notify(Object notification) {
-        if (oos != null) {
-            try {
-                oos.writeObject(notification);
-            } catch (IOException e) {
-                Main.log.log(Level.WARNING, "Error when notifying client", e);
-            }
+        if (connection != null) {
+            outbound.offer(notification);
         }
         if (fallback != null) {
             fallback.notify(notification);
@@ -0,0 +1,382 @@
+package gp;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store of profile results. Every change of a result appends a record with the whole
+ * result, and the latest record of the result is the valid one. Records are found through an index
+ * of record offsets by profile, which is built by scanning the journal when it is first needed.
+ * When most of the records have been replaced by newer ones, the valid records are copied to a
+ * new journal in the background.
+ *
+ * Record format: payload length, payload, CRC32 of payload. Payload is profile id, result index
+ * and the result. A record which was only partially written when the game crashed is dropped.
+ */
+final class ResultJournal {
+    private static final int MAGIC = 0x47504a31;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final int MIN_GARBAGE_FOR_COMPACTION = 64;
+
+    private final File file;
+    private RandomAccessFile journal;
+    private boolean failed;
+    private boolean compacting;
+    // Offsets of the latest records of results of each profile, by result index
+    private final Map<UUID, List<Long>> index = new HashMap<>();
+    private int recordCount;
+    private int liveRecordCount;
+
+    ResultJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the journal if it is not open yet. Returns false if the journal is not usable.
+     */
+    private boolean open() {
+        if (journal != null || failed) {
+            return !failed;
+        }
+        index.clear();
+        recordCount = 0;
+        try {
+            journal = new RandomAccessFile(file, "rw");
+            if (journal.length() == 0) {
+                journal.writeInt(MAGIC);
+            } else if (journal.readInt() != MAGIC) {
+                throw new IOException("Invalid header");
+            }
+            final long end = scan(journal, 4, index);
+            if (end < journal.length()) {
+                Main.log.warning("Dropping incomplete record from the end of " + file);
+                journal.setLength(end);
+            }
+            liveRecordCount = countRecords(index);
+            return true;
+        } catch (IOException e) {
+            Main.log.log(Level.SEVERE, "Reading of " + file + " failed", e);
+            failed = true;
+            close();
+            return false;
+        }
+    }
+
+    /**
+     * Reads records from the given position to the given index, and returns the position after
+     * the last complete record. Records after that position were only partially written. Damaged
+     * records between complete ones are skipped, and an IOException is thrown if a record cannot
+     * be skipped, so that the file is not changed before it has been recovered.
+     */
+    private long scan(RandomAccessFile f, long position, Map<UUID, List<Long>> index) throws IOException {
+        final long fileLength = f.length();
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(f.getChannel().position(position))));
+        final CRC32 crc = new CRC32();
+        while (position < fileLength) {
+            if (fileLength - position < 4) {
+                return position;
+            }
+            final int length = in.readInt();
+            if (length == 0 && isZeroFilled(in, fileLength - position - 4)) {
+                // File was extended, but the record was not written before the crash
+                return position;
+            }
+            if (length < 24 || length > MAX_RECORD_SIZE) {
+                throw new IOException("Invalid record length " + length + " at " + position);
+            }
+            if (position + 4 + length + 4 > fileLength) {
+                return position;
+            }
+            final byte[] payload = new byte[length];
+            in.readFully(payload);
+            crc.reset();
+            crc.update(payload);
+            if (in.readInt() == (int) crc.getValue()) {
+                final DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                final UUID profileId = new UUID(record.readLong(), record.readLong());
+                setOffset(index, profileId, record.readInt(), position);
+            } else {
+                // Counted as a replaced record, so that compaction removes it
+                Main.log.warning("Skipping damaged record at " + position + " of " + file);
+            }
+            ++recordCount;
+            position += length + 8;
+        }
+        return position;
+    }
+
+    private static boolean isZeroFilled(DataInputStream in, long count) throws IOException {
+        for (long i = 0; i < count; ++i) {
+            if (in.read() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores the offset of the latest record of a result, returns true if it replaced an older record.
+     */
+    private static boolean setOffset(Map<UUID, List<Long>> index, UUID profileId, int resultIndex, long offset) {
+        final List<Long> offsets = index.computeIfAbsent(profileId, id -> new ArrayList<>());
+        while (offsets.size() <= resultIndex) {
+            offsets.add(null);
+        }
+        return offsets.set(resultIndex, offset) != null;
+    }
+
+    private static int countRecords(Map<UUID, List<Long>> index) {
+        return index.values().stream().mapToInt(offsets -> (int) offsets.stream().filter(Objects::nonNull).count()).sum();
+    }
+
+    private static byte[] readRecord(RandomAccessFile f, long offset) throws IOException {
+        f.seek(offset);
+        final int length = f.readInt();
+        if (length < 24 || length > MAX_RECORD_SIZE) {
+            throw new IOException("Invalid record at " + offset);
+        }
+        final byte[] record = new byte[length + 8];
+        f.seek(offset);
+        f.readFully(record);
+        return record;
+    }
+
+    private static byte[] createRecord(UUID profileId, int resultIndex, Profile.Result result) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length
+        out.writeLong(profileId.getMostSignificantBits());
+        out.writeLong(profileId.getLeastSignificantBits());
+        out.writeInt(resultIndex);
+        result.write(out);
+        out.writeInt(0); // crc
+        final byte[] record = bytes.toByteArray();
+        final int length = record.length - 8;
+        writeInt(record, 0, length);
+        final CRC32 crc = new CRC32();
+        crc.update(record, 4, length);
+        writeInt(record, record.length - 4, (int) crc.getValue());
+        return record;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Returns the results of the profile, or an empty list if the journal cannot be read.
+     */
+    synchronized List<Profile.Result> load(UUID profileId) {
+        final List<Profile.Result> results = new ArrayList<>();
+        if (!open()) {
+            return results;
+        }
+        try {
+            for (Long offset : index.getOrDefault(profileId, Collections.emptyList())) {
+                if (offset == null) {
+                    throw new IOException("Result missing from " + file);
+                }
+                final DataInputStream in = new DataInputStream(new ByteArrayInputStream(readRecord(journal, offset)));
+                in.skipBytes(4 + 16 + 4);
+                results.add(Profile.Result.read(in));
+            }
+        } catch (IOException e) {
+            // Do not write anything to the journal, which could make it even harder to recover
+            Main.log.log(Level.SEVERE, "Reading of " + file + " failed", e);
+            failed = true;
+            close();
+        }
+        return results;
+    }
+
+    /**
+     * Stores the result with the given index of the profile. If sync is true, waits until the
+     * result is on disk. Returns false if the result could not be written.
+     */
+    synchronized boolean write(UUID profileId, int resultIndex, Profile.Result result, boolean sync) {
+        return append(profileId, Collections.singletonMap(resultIndex, result), sync);
+    }
+
+    /**
+     * Writes results of a profile which were saved in profiles.sav, because the profile was saved
+     * before the journal existed or the journal could not be written. Returns true if the results
+     * are in the journal.
+     *
+     * Some of the results may be in the journal already, if the game crashed during an earlier
+     * migration. Results which are in the journal are not written again, incomplete results are
+     * replaced by their completed versions, and results which differ from the journal otherwise
+     * are written after the results in the journal, so that neither is lost.
+     */
+    synchronized boolean migrate(UUID profileId, List<Profile.Result> results) {
+        if (!open()) {
+            return false;
+        }
+        final List<Long> offsets = index.getOrDefault(profileId, Collections.emptyList());
+        final Map<Integer, Profile.Result> missing = new TreeMap<>();
+        int nextIndex = offsets.size();
+        try {
+            for (int i = 0; i < results.size(); ++i) {
+                final Profile.Result result = results.get(i);
+                final Long offset = i < offsets.size() ? offsets.get(i) : null;
+                if (offset == null) {
+                    missing.put(i < offsets.size() ? i : nextIndex++, result);
+                    continue;
+                }
+                final byte[] record = readRecord(journal, offset);
+                if (Arrays.equals(record, createRecord(profileId, i, result))) {
+                    continue;
+                }
+                final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+                in.skipBytes(4 + 16 + 4);
+                final Profile.Result journaled = Profile.Result.read(in);
+                if (!journaled.isComplete() && isSameRace(journaled, result)) {
+                    missing.put(i, result);
+                } else {
+                    missing.put(nextIndex++, result);
+                }
+            }
+        } catch (IOException e) {
+            Main.log.log(Level.SEVERE, "Reading of " + file + " failed", e);
+            return false;
+        }
+        return missing.isEmpty() || append(profileId, missing, true);
+    }
+
+    private static boolean isSameRace(Profile.Result a, Profile.Result b) {
+        return a.trackId.equals(b.trackId) && a.totalLaps == b.totalLaps && a.totalHitpoints == b.totalHitpoints && a.gridPosition == b.gridPosition;
+    }
+
+    /**
+     * Appends records of the results by their indices, either all of them or none.
+     */
+    private boolean append(UUID profileId, Map<Integer, Profile.Result> results, boolean sync) {
+        if (!open()) {
+            return false;
+        }
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final Map<Integer, Integer> recordOffsets = new LinkedHashMap<>();
+        long end = -1;
+        try {
+            for (Map.Entry<Integer, Profile.Result> entry : results.entrySet()) {
+                recordOffsets.put(entry.getKey(), records.size());
+                records.write(createRecord(profileId, entry.getKey(), entry.getValue()));
+            }
+            end = journal.length();
+            journal.seek(end);
+            journal.write(records.toByteArray());
+            if (sync) {
+                journal.getChannel().force(true);
+            }
+        } catch (IOException e) {
+            Main.log.log(Level.SEVERE, "Writing of " + file + " failed", e);
+            if (end >= 0) {
+                // Do not leave some of the results in the journal
+                try {
+                    journal.setLength(end);
+                } catch (IOException e2) {
+                    failed = true;
+                    close();
+                }
+            }
+            return false;
+        }
+        for (Map.Entry<Integer, Integer> entry : recordOffsets.entrySet()) {
+            ++recordCount;
+            if (!setOffset(index, profileId, entry.getKey(), end + entry.getValue())) {
+                ++liveRecordCount;
+            }
+        }
+        if (!compacting && recordCount - liveRecordCount > MIN_GARBAGE_FOR_COMPACTION + liveRecordCount / 2) {
+            compacting = true;
+            final Thread thread = new Thread(this::compact, "Result journal compaction");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return true;
+    }
+
+    /**
+     * Copies the latest records to a new journal which replaces the current one. Most of the copying
+     * is done without blocking writers, since records before the current end do not change.
+     */
+    private void compact() {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            final Map<UUID, List<Long>> snapshot = new HashMap<>();
+            final long end;
+            synchronized (this) {
+                if (journal == null) {
+                    return;
+                }
+                index.forEach((profileId, offsets) -> snapshot.put(profileId, new ArrayList<>(offsets)));
+                end = journal.length();
+            }
+            final Map<UUID, List<Long>> newIndex = new HashMap<>();
+            try (RandomAccessFile source = new RandomAccessFile(file, "r");
+                 RandomAccessFile target = new RandomAccessFile(tmp, "rw")) {
+                target.setLength(0);
+                target.writeInt(MAGIC);
+                for (Map.Entry<UUID, List<Long>> entry : snapshot.entrySet()) {
+                    final List<Long> offsets = entry.getValue();
+                    for (int i = 0; i < offsets.size(); ++i) {
+                        if (offsets.get(i) != null) {
+                            setOffset(newIndex, entry.getKey(), i, target.getFilePointer());
+                            target.write(readRecord(source, offsets.get(i)));
+                        }
+                    }
+                }
+            }
+            synchronized (this) {
+                if (journal == null) {
+                    return;
+                }
+                // Copy the records which were written during compaction
+                try (RandomAccessFile target = new RandomAccessFile(tmp, "rw")) {
+                    final long tailStart = target.length();
+                    final byte[] tail = new byte[(int) (journal.length() - end)];
+                    journal.seek(end);
+                    journal.readFully(tail);
+                    target.seek(tailStart);
+                    target.write(tail);
+                    scan(target, tailStart, newIndex);
+                    target.getChannel().force(true);
+                }
+                // Files cannot be replaced while they are open on all platforms
+                close();
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                journal = new RandomAccessFile(file, "rw");
+                index.clear();
+                index.putAll(newIndex);
+                recordCount = liveRecordCount = countRecords(index);
+            }
+        } catch (IOException e) {
+            Main.log.log(Level.WARNING, "Compaction of " + file + " failed", e);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                if (tmp.exists() && !tmp.delete()) {
+                    Main.log.warning("Unable to remove " + tmp);
+                }
+            }
+        }
+    }
+
+    private void close() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Main.log.log(Level.WARNING, "Closing of " + file + " failed", e);
+            }
+            journal = null;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package gp;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Statistics of the results of a profile. Completed results are aggregated into buckets by the
+ * properties by which ProfileStats filters them, so the statistics of any filter are a sum of
+ * the matching buckets. Updated as the results are added and completed.
+ */
+final class ResultStats {
+    private final Map<List<Object>, Bucket> buckets = new HashMap<>();
+    private final Set<String> trackIds = new TreeSet<>();
+    private int totalRaces;
+    private int abortedRaces;
+    private long timeUsedMs;
+
+    static class Aggregate {
+        int completedRaces;
+        int dnfRaces;
+        int completedLaps;
+        int wins;
+        int podiums;
+        int championshipRaces;
+        int championshipPoints;
+        int minTurns; // 0 if there are no finishes
+
+        void add(Profile.Result result) {
+            ++completedRaces;
+            if (result.remainingHitpoints <= 0) {
+                ++dnfRaces;
+            } else if (result.turns > 0) {
+                minTurns = minTurns == 0 ? result.turns : Math.min(minTurns, result.turns);
+            }
+            completedLaps += result.completedLaps;
+            if (result.position == 1) {
+                ++wins;
+            }
+            if (result.position <= 3) {
+                ++podiums;
+            }
+            if (result.isChampionshipRace()) {
+                ++championshipRaces;
+                championshipPoints += Season.getDefaultPoints(result.position);
+            }
+        }
+
+        void add(Aggregate other) {
+            completedRaces += other.completedRaces;
+            dnfRaces += other.dnfRaces;
+            completedLaps += other.completedLaps;
+            wins += other.wins;
+            podiums += other.podiums;
+            championshipRaces += other.championshipRaces;
+            championshipPoints += other.championshipPoints;
+            if (other.minTurns > 0) {
+                minTurns = minTurns == 0 ? other.minTurns : Math.min(minTurns, other.minTurns);
+            }
+        }
+    }
+
+    static final class Bucket extends Aggregate {
+        final String trackId;
+        final int totalLaps;
+        final int totalHitpoints;
+        final int playerCount;
+        final boolean championshipRace;
+
+        private Bucket(Profile.Result result) {
+            trackId = result.trackId;
+            totalLaps = result.totalLaps;
+            totalHitpoints = result.totalHitpoints;
+            playerCount = result.standings.size();
+            championshipRace = result.isChampionshipRace();
+        }
+    }
+
+    ResultStats(List<Profile.Result> results) {
+        results.forEach(this::add);
+    }
+
+    /**
+     * Adds a result, which may be complete already.
+     */
+    void add(Profile.Result result) {
+        ++totalRaces;
+        trackIds.add(result.trackId);
+        if (result.isComplete()) {
+            addComplete(result);
+        } else {
+            ++abortedRaces;
+        }
+    }
+
+    /**
+     * Updates the statistics when a result which was added before has been completed.
+     */
+    void completed(Profile.Result result) {
+        --abortedRaces;
+        addComplete(result);
+    }
+
+    private void addComplete(Profile.Result result) {
+        timeUsedMs += result.timeUsedMs;
+        if (result.standings != null) {
+            final List<Object> key = Arrays.asList(result.trackId, result.totalLaps, result.totalHitpoints, result.standings.size(), result.isChampionshipRace());
+            buckets.computeIfAbsent(key, k -> new Bucket(result)).add(result);
+        }
+    }
+
+    /**
+     * Returns the sum of completed results in the buckets accepted by the filter.
+     */
+    Aggregate sum(Predicate<Bucket> filter) {
+        final Aggregate sum = new Aggregate();
+        for (Bucket bucket : buckets.values()) {
+            if (filter.test(bucket)) {
+                sum.add(bucket);
+            }
+        }
+        return sum;
+    }
+
+    Set<String> getTrackIds() {
+        return Collections.unmodifiableSet(trackIds);
+    }
+
+    int getTotalRaces() {
+        return totalRaces;
+    }
+
+    int getAbortedRaces() {
+        return abortedRaces;
+    }
+
+    long getTimeUsedMs() {
+        return timeUsedMs;
+    }
+}
@@ -78,7 +78,7 @@ public class Season implements Comparable<Season>, TrackSelector {
         panel.add(rightPanel);
         buttonPanel = new JPanel(new GridLayout(0, 2));
         final JButton addTrackButton = new JButton("Add track...");
-        addTrackButton.addActionListener(a -> TrackPreviewButton.openTrackSelectionDialog(frame, this, TrackPreviewButton.getRequiredGridSize(slots), null));
+        addTrackButton.addActionListener(a -> TrackPreviewButton.openTrackSelectionDialog(frame, this, TrackPreviewButton.getRequiredGridSize(slots)));
         buttonPanel.add(addTrackButton);
         if (trackIds != null) {
             trackIds.parallelStream().map(f -> {
@@ -138,7 +138,7 @@ public class Season implements Comparable<Season>, TrackSelector {
         rightPanel.add(playerPanel);
         rightPanel.add(randomTrackOrder);
         rightPanel.add(tireChanges);
-        final SettingsField hitpoints = new SettingsField(panel, "Hitpoints", Integer.toString(Main.settings.maxHitpoints), SettingsField.minHP, SettingsField.maxHP);
+        final SettingsField hitpoints = new SettingsField(panel, "Hitpoints", Integer.toString(Main.settings.maxHitpoints), RaceEngine.minHP, RaceEngine.maxHP);
         rightPanel.add(hitpoints);
         final PointDistributionField pointDistributionField = new PointDistributionField(panel, "Point distribution", defaultPointDistribution);
         rightPanel.add(pointDistributionField);
@@ -397,7 +397,7 @@ public class Season implements Comparable<Season>, TrackSelector {
                 final int pos = i + 1;
                 slots.add(new PlayerSlot(sortedParticipants.get(sortedParticipants.size() - pos), pos));
             }
-            final Main server = new Main(new Main.Params(laps, animationDelayMs, timePerTurnMs, leewayMs, maxHitpoints, tireChanges), null, frame, masterPanel, slots, data, Season.this);
+            final Main server = new Main(new RaceEngine.Params(laps, animationDelayMs, timePerTurnMs, leewayMs, maxHitpoints, tireChanges), null, frame, masterPanel, slots, data, Season.this);
             listener.contentChanged(server, null, server, "championship race", true);
             Main.setContent(frame, server);
             new Thread(server).start();
@@ -434,8 +434,8 @@ public class Season implements Comparable<Season>, TrackSelector {
                             leewayMs = Integer.parseInt(parts[4]);
                             if (parts.length > 5) {
                                 maxHitpoints = Integer.parseInt(parts[5]);
-                                maxHitpoints = Math.max(SettingsField.minHP, maxHitpoints);
-                                maxHitpoints = Math.min(SettingsField.maxHP, maxHitpoints);
+                                maxHitpoints = Math.max(RaceEngine.minHP, maxHitpoints);
+                                maxHitpoints = Math.min(RaceEngine.maxHP, maxHitpoints);
                             } else {
                                 maxHitpoints = 18;
                             }
@@ -0,0 +1,173 @@
+package gp;
+
+import gp.ai.*;
+import gp.model.FinalStandings;
+import gp.model.PlayerStats;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+/**
+ * Command line tool for evaluating AIs against each other. Runs a number of
+ * headless races on every track of the given directory in parallel and prints
+ * win rates, average finishing positions and DNF rates for each AI.
+ *
+ * Usage: gp.Tournament [-races N] [-laps N] [-hp N] [-seed N] [-threads N] [-tracks DIR] [-weather] AI...
+ * where AI is one of BEGINNER, AMATEUR or PRO.
+ */
+public class Tournament {
+
+    private int races = 10;
+    private int laps = 1;
+    private int maxHitpoints = 18;
+    private long seed = 0;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String trackDirectory = "tracks";
+    private boolean weather;
+    private final List<AI.Type> aiTypes = new ArrayList<>();
+
+    private static class Result {
+        private final String name;
+        private int races;
+        private int wins;
+        private int dnfs;
+        private long positionSum;
+
+        private Result(String name) {
+            this.name = name;
+        }
+
+        private void add(PlayerStats stats) {
+            ++races;
+            positionSum += stats.position;
+            if (stats.position == 1) ++wins;
+            if (stats.hitpoints <= 0) ++dnfs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %8d %7.1f%% %9.2f %7.1f%%", name, races, 100.0 * wins / races, (double) positionSum / races, 100.0 * dnfs / races);
+        }
+    }
+
+    private static AI createAI(AI.Type type, TrackData data, long seed) {
+        final BaseAI ai;
+        switch (type) {
+            case BEGINNER: ai = new BeginnerAI(data); break;
+            case AMATEUR: ai = new AmateurAI(data); break;
+            case PRO: ai = new ProAI(data); break;
+            default: throw new IllegalArgumentException("Unsupported AI type: " + type);
+        }
+        ai.setRandom(new Random(seed));
+        return ai;
+    }
+
+    private FinalStandings race(TrackData data, long raceSeed) {
+        final Random seeds = new Random(raceSeed);
+        final List<AI> ais = new ArrayList<>(aiTypes.size());
+        for (AI.Type type : aiTypes) {
+            ais.add(createAI(type, data, seeds.nextLong()));
+        }
+        return new RaceEngine(data, ais, new RaceEngine.Params(laps, maxHitpoints, weather, seeds.nextLong())).race();
+    }
+
+    private List<TrackData> loadTracks() {
+        final File[] files = new File(trackDirectory).listFiles(f -> f.getName().toLowerCase().endsWith(".dat"));
+        final List<TrackData> tracks = new ArrayList<>();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                final TrackData data = TrackData.createTrackData(file.getPath(), true);
+                if (data == null) {
+                    System.err.println("Skipping invalid track " + file.getName());
+                } else if (data.getGridMaxSize() < aiTypes.size()) {
+                    System.err.println("Skipping track " + file.getName() + ", grid is too small");
+                } else {
+                    tracks.add(data);
+                }
+            }
+        }
+        return tracks;
+    }
+
+    private void run() throws InterruptedException {
+        final List<TrackData> tracks = loadTracks();
+        if (tracks.isEmpty()) {
+            System.err.println("No tracks found from " + trackDirectory);
+            return;
+        }
+        final Random seeds = new Random(seed);
+        final List<Callable<FinalStandings>> tasks = new ArrayList<>(tracks.size() * races);
+        for (TrackData data : tracks) {
+            for (int i = 0; i < races; ++i) {
+                final long raceSeed = seeds.nextLong();
+                tasks.add(() -> race(data, raceSeed));
+            }
+        }
+        final long startTime = System.currentTimeMillis();
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        final List<Future<FinalStandings>> futures;
+        try {
+            futures = pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
+        final List<Result> results = new ArrayList<>(aiTypes.size());
+        for (int i = 0; i < aiTypes.size(); ++i) {
+            results.add(new Result(aiTypes.get(i) + " #" + (i + 1)));
+        }
+        int failures = 0;
+        for (Future<FinalStandings> future : futures) {
+            try {
+                for (PlayerStats stats : future.get().getStats()) {
+                    // Player identifiers are assigned in the order of given AIs: p1, p2, ...
+                    results.get(Integer.parseInt(stats.playerId.substring(1)) - 1).add(stats);
+                }
+            } catch (ExecutionException e) {
+                Main.log.log(Level.SEVERE, "Race failed", e.getCause());
+                ++failures;
+            }
+        }
+        final long timeSpent = System.currentTimeMillis() - startTime;
+        System.out.println(tasks.size() + " races on " + tracks.size() + " tracks in " + timeSpent / 1000.0 + " s using " + threads + " threads" + (failures > 0 ? ", " + failures + " failed" : ""));
+        System.out.println(String.format("%-12s %8s %8s %9s %8s", "AI", "Races", "Wins", "Avg pos", "DNF"));
+        results.forEach(System.out::println);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: gp.Tournament [-races N] [-laps N] [-hp N] [-seed N] [-threads N] [-tracks DIR] [-weather] AI...");
+        System.err.println("AI is one of BEGINNER, AMATEUR or PRO");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final Tournament tournament = new Tournament();
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                    case "-races": tournament.races = Integer.parseInt(args[++i]); break;
+                    case "-laps": tournament.laps = Integer.parseInt(args[++i]); break;
+                    case "-hp": tournament.maxHitpoints = Integer.parseInt(args[++i]); break;
+                    case "-seed": tournament.seed = Long.parseLong(args[++i]); break;
+                    case "-threads": tournament.threads = Integer.parseInt(args[++i]); break;
+                    case "-tracks": tournament.trackDirectory = args[++i]; break;
+                    case "-weather": tournament.weather = true; break;
+                    default: tournament.aiTypes.add(AI.Type.valueOf(args[i].toUpperCase()));
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        if (tournament.aiTypes.isEmpty() || tournament.aiTypes.contains(AI.Type.MANUAL) || tournament.races < 1 || tournament.threads < 1) {
+            usage();
+        }
+        // Per-turn logging goes through a single synchronized file handler, which would serialize the races.
+        Main.log.setLevel(Level.WARNING);
+        tournament.run();
+    }
+}
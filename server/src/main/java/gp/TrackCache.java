@@ -0,0 +1,64 @@
+package gp;
+
+import gp.ai.TrackData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+
+/**
+ * Client side cache of track bundles received from servers. Bundles are stored by their hash,
+ * so servers only need to send the track data when the client has not seen it before.
+ */
+final class TrackCache {
+    private static final File directory = TrackData.cacheDirectory;
+
+    private TrackCache() {
+    }
+
+    private static File getFile(String hash) {
+        // Hash is received from the server, so it must not be able to name other files
+        if (!hash.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("Invalid track hash " + hash);
+        }
+        return new File(directory, hash + ".track");
+    }
+
+    /**
+     * Returns the cached track data with the given hash, or null if it is not cached.
+     */
+    static TrackData load(String hash) {
+        final File file = getFile(hash);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            final byte[] bundle = Files.readAllBytes(file.toPath());
+            if (hash.equals(TrackData.hash(bundle))) {
+                return TrackData.fromBundle(bundle);
+            }
+            Main.log.warning("Removing corrupted track " + file);
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            Main.log.log(Level.WARNING, "Removing unreadable track " + file, e);
+        }
+        if (!file.delete()) {
+            Main.log.warning("Unable to remove " + file);
+        }
+        return null;
+    }
+
+    static void store(String hash, byte[] bundle) {
+        final File file = getFile(hash);
+        try {
+            Files.createDirectories(directory.toPath());
+            final File tmp = new File(directory, hash + ".tmp");
+            Files.write(tmp.toPath(), bundle);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Track is downloaded again next time
+            Main.log.log(Level.WARNING, "Unable to cache track " + file, e);
+        }
+    }
+}
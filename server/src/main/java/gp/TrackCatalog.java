@@ -0,0 +1,287 @@
+package gp;
+
+import gp.ai.Node;
+import gp.ai.TrackData;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Metadata and thumbnails of the available tracks, so that the track selection dialog does not
+ * need to load every track. Entries are kept in memory and in trackcache/catalog.dat, and they are
+ * created again when the track file changes: external tracks are checked by modification time and
+ * size, and internal tracks by the hash of the track file. The catalog is filled in the background
+ * when the game starts.
+ */
+final class TrackCatalog {
+    private static final File file = new File(TrackData.cacheDirectory, "catalog.dat");
+    private static final int MAGIC = 0x47505443;
+    private static final int VERSION = 1;
+    static final int thumbnailWidth = 400;
+    static final int thumbnailHeight = 300;
+
+    // Entries by track key, which is the track id of external tracks, and / + track id of internal tracks
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Hashes of internal tracks do not change while the game is running
+    private static final Map<String, String> internalStamps = new ConcurrentHashMap<>();
+    // Entries which are being created, so that the dialog and the background refresh do not both create them
+    private static final Map<String, CompletableFuture<Entry>> pending = new ConcurrentHashMap<>();
+    private static boolean loaded;
+    private static volatile boolean modified;
+
+    static final class Entry {
+        final String trackId;
+        final boolean external;
+        private final String stamp;
+        final int gridMaxSize; // 0 if the track is invalid
+        final int laneCount;
+        final int rainProbability;
+        final int shortestPeriod;
+        private final byte[] thumbnail; // png, null if the track has no image
+        private ImageIcon icon;
+
+        private Entry(String trackId, boolean external, String stamp, int gridMaxSize, int laneCount, int rainProbability, int shortestPeriod, byte[] thumbnail) {
+            this.trackId = trackId;
+            this.external = external;
+            this.stamp = stamp;
+            this.gridMaxSize = gridMaxSize;
+            this.laneCount = laneCount;
+            this.rainProbability = rainProbability;
+            this.shortestPeriod = shortestPeriod;
+            this.thumbnail = thumbnail;
+        }
+
+        /**
+         * Returns the thumbnail of the track, or null if the track has no image.
+         */
+        synchronized ImageIcon getIcon() {
+            if (icon == null && thumbnail != null) {
+                try {
+                    icon = new ImageIcon(ImageIO.read(new ByteArrayInputStream(thumbnail)));
+                } catch (IOException e) {
+                    Main.log.log(Level.WARNING, "Invalid thumbnail of track " + trackId, e);
+                }
+            }
+            return icon;
+        }
+    }
+
+    private TrackCatalog() {
+    }
+
+    private static String getKey(String trackId, boolean external) {
+        return external ? trackId : "/" + trackId;
+    }
+
+    /**
+     * Returns the entries of the given tracks in the same order, creating the missing and outdated ones.
+     */
+    static List<Entry> getEntries(List<String> internal, List<String> external) {
+        load();
+        final List<Entry> result = new ArrayList<>(internal.size() + external.size());
+        internal.parallelStream().map(trackId -> getEntry(trackId, false)).filter(Objects::nonNull).collect(Collectors.toList()).forEach(result::add);
+        external.parallelStream().map(trackId -> getEntry(trackId, true)).filter(Objects::nonNull).collect(Collectors.toList()).forEach(result::add);
+        save();
+        return result;
+    }
+
+    /**
+     * Returns the thumbnail of the track if it is in the catalog already.
+     */
+    static ImageIcon getIcon(TrackData data) {
+        final Entry entry = entries.get(getKey(data.getTrackId(), data.isExternal()));
+        return entry == null ? null : entry.getIcon();
+    }
+
+    /**
+     * Fills the catalog with all available tracks and decodes their thumbnails in the background.
+     */
+    static void refreshInBackground() {
+        final Thread thread = new Thread(() -> {
+            final List<String> internal = new ArrayList<>();
+            final List<String> external = new ArrayList<>();
+            TrackPreviewButton.getAllTracks(internal, external);
+            getEntries(internal, external).forEach(Entry::getIcon);
+        }, "Track catalog");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Returns the entry of the track if it is in the catalog and known to be up to date, or null.
+     * Does not hash internal tracks, so that it can be called from the event dispatch thread.
+     */
+    static Entry getReadyEntry(String trackId, boolean external) {
+        load();
+        final String stamp = external ? getStamp(trackId, true) : internalStamps.get(trackId);
+        final Entry entry = entries.get(getKey(trackId, external));
+        return entry != null && entry.stamp.equals(stamp) ? entry : null;
+    }
+
+    /**
+     * Returns the entry of the track, creating it if it is missing or outdated, which takes as long
+     * as loading the track. Returns null if the track does not exist. Created entries are written
+     * to the catalog file when save is called.
+     */
+    static Entry getEntry(String trackId, boolean external) {
+        load();
+        final String stamp = getStamp(trackId, external);
+        if (stamp == null) {
+            return null;
+        }
+        final String key = getKey(trackId, external);
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.stamp.equals(stamp)) {
+            return entry;
+        }
+        final CompletableFuture<Entry> future = new CompletableFuture<>();
+        final CompletableFuture<Entry> other = pending.putIfAbsent(key, future);
+        if (other != null) {
+            return other.join();
+        }
+        try {
+            // Created outside of the map, which would block updates of other entries while the track loads
+            final Entry created = createEntry(trackId, external, stamp);
+            entries.put(key, created);
+            modified = true;
+            future.complete(created);
+            return created;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            pending.remove(key);
+        }
+    }
+
+    private static String getStamp(String trackId, boolean external) {
+        if (external) {
+            final File trackFile = new File(trackId);
+            return trackFile.exists() ? trackFile.lastModified() + ":" + trackFile.length() : null;
+        }
+        return internalStamps.computeIfAbsent(trackId, id -> {
+            try (InputStream is = Main.class.getResourceAsStream("/" + id)) {
+                if (is == null) {
+                    return null;
+                }
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int count;
+                while ((count = is.read(buffer)) >= 0) {
+                    bytes.write(buffer, 0, count);
+                }
+                return TrackData.hash(bytes.toByteArray());
+            } catch (IOException e) {
+                return null;
+            }
+        });
+    }
+
+    private static Entry createEntry(String trackId, boolean external, String stamp) {
+        final TrackData data = TrackData.createTrackData(trackId, external);
+        if (data == null) {
+            return new Entry(trackId, external, stamp, 0, 0, 0, 0, null);
+        }
+        final int laneCount = (int) data.getNodes().stream().filter(Node::hasFinish).count();
+        return new Entry(trackId, external, stamp, data.getGridMaxSize(), laneCount, data.weatherParams.rainProbability, data.weatherParams.shortestPeriod, createThumbnail(data.getBackgroundImage()));
+    }
+
+    private static byte[] createThumbnail(BufferedImage image) {
+        if (image == null) {
+            return null;
+        }
+        final BufferedImage thumbnail = new BufferedImage(thumbnailWidth, thumbnailHeight, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g = thumbnail.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g.drawImage(image, 0, 0, thumbnailWidth, thumbnailHeight, null);
+        g.dispose();
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ImageIO.write(thumbnail, "png", bytes);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                final String trackId = in.readUTF();
+                final boolean external = in.readBoolean();
+                final String stamp = in.readUTF();
+                final int gridMaxSize = in.readInt();
+                final int laneCount = in.readInt();
+                final int rainProbability = in.readInt();
+                final int shortestPeriod = in.readInt();
+                final int thumbnailLength = in.readInt();
+                byte[] thumbnail = null;
+                if (thumbnailLength >= 0) {
+                    thumbnail = new byte[thumbnailLength];
+                    in.readFully(thumbnail);
+                }
+                entries.putIfAbsent(getKey(trackId, external), new Entry(trackId, external, stamp, gridMaxSize, laneCount, rainProbability, shortestPeriod, thumbnail));
+            }
+        } catch (IOException e) {
+            // Catalog is created again
+            Main.log.log(Level.WARNING, "Unable to read " + file, e);
+        }
+    }
+
+    static synchronized void save() {
+        if (!modified) {
+            return;
+        }
+        modified = false;
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            final Path tmp = Files.createTempFile(file.getParentFile().toPath(), "catalog", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                final List<Entry> snapshot = new ArrayList<>(entries.values());
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Entry entry : snapshot) {
+                    out.writeUTF(entry.trackId);
+                    out.writeBoolean(entry.external);
+                    out.writeUTF(entry.stamp);
+                    out.writeInt(entry.gridMaxSize);
+                    out.writeInt(entry.laneCount);
+                    out.writeInt(entry.rainProbability);
+                    out.writeInt(entry.shortestPeriod);
+                    out.writeInt(entry.thumbnail == null ? -1 : entry.thumbnail.length);
+                    if (entry.thumbnail != null) {
+                        out.write(entry.thumbnail);
+                    }
+                }
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Main.log.log(Level.WARNING, "Unable to write " + file, e);
+        }
+    }
+}
@@ -4,8 +4,6 @@ import gp.ai.TrackData;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.event.WindowAdapter;
-import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.URI;
@@ -15,9 +13,7 @@ import java.nio.file.*;
 import java.security.CodeSource;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -53,7 +49,7 @@ class TrackPreviewButton extends JButton implements TrackSelector {
         this.localProfiles = localProfiles;
         this.lobby = lobby;
         this.slots = slots;
-        addActionListener(e -> openTrackSelectionDialog(frame, this, getRequiredGridSize(slots), lobby));
+        addActionListener(e -> openTrackSelectionDialog(frame, this, getRequiredGridSize(slots)));
     }
 
     static int getRequiredGridSize(List<PlayerSlot> slots) {
@@ -66,14 +62,7 @@ class TrackPreviewButton extends JButton implements TrackSelector {
         return requiredGridSize;
     }
 
-    static void openTrackSelectionDialog(JFrame frame, TrackSelector trackSelector, int requiredGridSize, Lobby lobby) {
-        if (lobby != null) {
-            if (lobby.busy) {
-                System.out.println("Unable to change track, processing a join request");
-                return;
-            }
-            lobby.busy = true;
-        }
+    static void openTrackSelectionDialog(JFrame frame, TrackSelector trackSelector, int requiredGridSize) {
         final List<String> internal = new ArrayList<>();
         final List<String> external = new ArrayList<>();
         getAllTracks(internal, external);
@@ -89,18 +78,45 @@ class TrackPreviewButton extends JButton implements TrackSelector {
         }
         final JPanel trackPanel = new JPanel(new GridLayout(0, cols));
         final JDialog trackDialog = new JDialog(frame);
-        internal.parallelStream().map(f -> TrackData.createTrackData(f, false)).filter(Objects::nonNull).filter(data -> data.getGridMaxSize() >= requiredGridSize).map(data -> createTrackButton(trackSelector, trackDialog, data)).filter(Objects::nonNull).collect(Collectors.toList()).forEach(trackPanel::add);
-        external.parallelStream().map(f -> TrackData.createTrackData(f, true)).filter(Objects::nonNull).filter(data -> data.getGridMaxSize() >= requiredGridSize).map(data -> createTrackButton(trackSelector, trackDialog, data)).filter(Objects::nonNull).collect(Collectors.toList()).forEach(trackPanel::add);
-        final JScrollPane scrollPane = new JScrollPane(trackPanel);
-        if (lobby != null) {
-            trackDialog.addWindowListener(new WindowAdapter() {
-                @Override
-                public void windowClosed(WindowEvent e) {
-                    super.windowClosed(e);
-                    lobby.busy = false;
+        // Tracks which are not in the catalog yet are shown when their entries have been created
+        final Map<Integer, JPanel> missingSlots = new LinkedHashMap<>();
+        for (int i = 0; i < trackCount; ++i) {
+            final TrackCatalog.Entry entry = TrackCatalog.getReadyEntry(getTrackId(i, internal, external), i >= internal.size());
+            if (entry != null) {
+                final JButton button = createTrackButton(trackSelector, trackDialog, entry, requiredGridSize);
+                if (button != null) {
+                    trackPanel.add(button);
                 }
-            });
+            } else {
+                final JPanel slot = new JPanel(new BorderLayout());
+                slot.setPreferredSize(new Dimension(TrackCatalog.thumbnailWidth, TrackCatalog.thumbnailHeight));
+                slot.add(new JLabel("Loading...", SwingConstants.CENTER));
+                trackPanel.add(slot);
+                missingSlots.put(i, slot);
+            }
+        }
+        if (!missingSlots.isEmpty()) {
+            final Thread thread = new Thread(() -> {
+                missingSlots.forEach((i, slot) -> {
+                    final TrackCatalog.Entry entry = TrackCatalog.getEntry(getTrackId(i, internal, external), i >= internal.size());
+                    SwingUtilities.invokeLater(() -> {
+                        final JButton button = entry == null ? null : createTrackButton(trackSelector, trackDialog, entry, requiredGridSize);
+                        if (button == null) {
+                            trackPanel.remove(slot);
+                        } else {
+                            slot.removeAll();
+                            slot.add(button);
+                        }
+                        trackPanel.revalidate();
+                        trackPanel.repaint();
+                    });
+                });
+                TrackCatalog.save();
+            }, "Track selection");
+            thread.setDaemon(true);
+            thread.start();
         }
+        final JScrollPane scrollPane = new JScrollPane(trackPanel);
         trackDialog.setTitle("Select track");
         trackDialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
         trackDialog.setContentPane(scrollPane);
@@ -110,12 +126,23 @@ class TrackPreviewButton extends JButton implements TrackSelector {
         trackDialog.setVisible(true);
     }
 
-    private static JButton createTrackButton(TrackSelector trackSelector, JDialog trackDialog, TrackData data) {
-        final ImageIcon icon = createIcon(data);
+    private static String getTrackId(int index, List<String> internal, List<String> external) {
+        return index < internal.size() ? internal.get(index) : external.get(index - internal.size());
+    }
+
+    private static JButton createTrackButton(TrackSelector trackSelector, JDialog trackDialog, TrackCatalog.Entry entry, int requiredGridSize) {
+        if (entry.gridMaxSize < requiredGridSize) return null;
+        final ImageIcon icon = entry.getIcon();
         if (icon == null) return null;
 
         final JButton selectTrackButton = new JButton();
         selectTrackButton.addActionListener(l -> {
+            // Only the selected track is loaded
+            final TrackData data = TrackData.createTrackData(entry.trackId, entry.external);
+            if (data == null) {
+                JOptionPane.showConfirmDialog(trackDialog, "Unable to load track " + entry.trackId, "Error", JOptionPane.DEFAULT_OPTION);
+                return;
+            }
             trackSelector.setTrack(data, icon);
             trackDialog.setVisible(false);
             trackDialog.dispose();
@@ -140,7 +167,14 @@ class TrackPreviewButton extends JButton implements TrackSelector {
         } else {
             try {
                 final CodeSource src = Main.class.getProtectionDomain().getCodeSource();
-                if (src != null) {
+                final File classDirectory = src == null || !"file".equals(src.getLocation().getProtocol()) ? null : new File(src.getLocation().toURI());
+                if (classDirectory != null && classDirectory.isDirectory()) {
+                    // Running from compiled classes instead of a jar, e.g. the dedicated server
+                    final String[] names = classDirectory.list((dir, name) -> name.toLowerCase().endsWith(".dat"));
+                    if (names != null) {
+                        internal.addAll(Arrays.asList(names));
+                    }
+                } else if (src != null) {
                     URL jar = src.getLocation();
                     ZipInputStream zip = new ZipInputStream(jar.openStream());
                     while(true) {
@@ -158,7 +192,7 @@ class TrackPreviewButton extends JButton implements TrackSelector {
                     Main.log.log(Level.SEVERE, "Unable to read resource directory");
                     return;
                 }
-            } catch (IOException ex) {
+            } catch (IOException | URISyntaxException ex) {
                 Main.log.log(Level.SEVERE, "Unable to read resource directory", ex);
                 return;
             }
@@ -217,27 +251,18 @@ class TrackPreviewButton extends JButton implements TrackSelector {
         return data;
     }
 
-    private static Map<String, ImageIcon> cache = new ConcurrentHashMap<>();
-
     static ImageIcon createIcon(TrackData data) {
         final String cacheKey = data.getCacheKey();
         if (cacheKey == null) return null;
 
-        final ImageIcon cachedIcon = cache.get(cacheKey);
-        if (cachedIcon != null) {
-            return cachedIcon;
+        final ImageIcon catalogIcon = TrackCatalog.getIcon(data);
+        if (catalogIcon != null) {
+            return catalogIcon;
         }
         final BufferedImage image = data.getBackgroundImage();
         if (image == null) {
             return null;
         }
-        final ImageIcon icon = new ImageIcon();
-        final int x = image.getWidth();
-        final int y = image.getHeight();
-        final double scaleX = x / 400.0;
-        final double scaleY = y / 300.0;
-        icon.setImage(image.getScaledInstance((int) (x / scaleX), (int) (y / scaleY), Image.SCALE_FAST));
-        cache.put(cacheKey, icon);
-        return icon;
+        return new ImageIcon(ImageCache.getScaledImage(cacheKey, image, TrackCatalog.thumbnailWidth, TrackCatalog.thumbnailHeight));
     }
 }
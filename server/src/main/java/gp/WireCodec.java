@@ -0,0 +1,857 @@
+package gp;
+
+import gp.model.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Hand-written binary encoding of the messages exchanged between server and clients.
+ *
+ * Each message starts with a type byte. Integers are written as varints, signed ones zigzag encoded,
+ * and optional fields are preceded by a presence mask. Player and game ids are interned per
+ * connection: the first occurrence is written as a string and later ones as an index to the
+ * table which both ends build in the same order. Messages without a hand-written encoding,
+ * such as TrackData and ProfileMessage, are embedded with Java serialization.
+ *
+ * Game states are sent in full only for the first state of a game on the connection, after
+ * which only the players whose state changed since the previous game state are included.
+ * The receiver rebuilds the full game state, and verifies it against a checksum of the state
+ * which the sender had, so that diverged ends fail the connection instead of racing on.
+ *
+ * Track data is offered by its hash, and the bundle is only sent if the client requests it.
+ */
+final class WireCodec {
+    private static final int SERIALIZED = 0;
+    private static final int NOTIFICATION = 1;
+    private static final int CREATED_PLAYER = 2;
+    private static final int CURVE_STOP = 3;
+    private static final int HITPOINT = 4;
+    private static final int LAP_CHANGE = 5;
+    private static final int MOVEMENT = 6;
+    private static final int ROLL = 7;
+    private static final int TIRE_CHANGE = 8;
+    private static final int STANDINGS = 9;
+    private static final int WEATHER = 10;
+    private static final int FINAL_STANDINGS = 11;
+    private static final int KICK = 12;
+    private static final int GAME_STATE = 13;
+    private static final int MOVES = 14;
+    private static final int GEAR = 15;
+    private static final int SELECTED_INDEX = 16;
+    private static final int GAME_STATE_DELTA = 17;
+    private static final int TRACK_OFFER = 18;
+    private static final int TRACK_REQUEST = 19;
+    private static final int TRACK_BUNDLE = 20;
+
+    // Track data with its background image is the largest message
+    private static final int MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+    // Buffers grow to the size of the largest message, and shrink back at turn boundaries
+    private static final int BUFFER_SIZE = 256;
+
+    private static final int NULL_STRING = 0;
+    private static final int NEW_STRING = 1;
+
+    // Presence mask of a player state in a delta, when the player state has not changed
+    private static final int UNCHANGED = 0x80;
+
+    private static final Tires.Type[] tireTypes = Tires.Type.values();
+    private static final HitpointNotification.Source[] sources = HitpointNotification.Source.values();
+    private static final Weather[] weathers = Weather.values();
+
+    private WireCodec() {
+    }
+
+    static final class Encoder {
+        private final Map<String, Integer> strings = new HashMap<>();
+        private long stringBytes;
+        private final Output out = new Output();
+        // Player states of the previous game state, which deltas are relative to
+        private String baseGameId;
+        private Map<String, Snapshot> base = new HashMap<>();
+
+        /**
+         * Writes the message to the stream prefixed with its length, and returns the length.
+         */
+        int write(Object message, OutputStream stream) throws IOException {
+            encode(message);
+            WireCodec.writeVarint(stream, out.size());
+            out.writeTo(stream);
+            return out.size();
+        }
+
+        void trim() {
+            out.trim();
+        }
+
+        long getRetainedBytes() {
+            return out.capacity() + stringBytes + base.size() * Snapshot.BYTES;
+        }
+
+        private void encode(Object message) throws IOException {
+            out.reset();
+            if (message.getClass() == Notification.class) {
+                out.write(NOTIFICATION);
+                writeId(((Notification) message).getPlayerId());
+            } else if (message instanceof CreatedPlayerNotification) {
+                final CreatedPlayerNotification notification = (CreatedPlayerNotification) message;
+                out.write(CREATED_PLAYER);
+                writeId(notification.getPlayerId());
+                writeString(notification.getName());
+                writeVarint(notification.getNodeId());
+                writeSigned(notification.getHitpoints());
+                writeSigned(notification.getLapsRemaining());
+                final int[] colors = notification.getColors();
+                writeVarint(colors == null ? 0 : colors.length + 1);
+                if (colors != null) {
+                    for (int color : colors) {
+                        writeSigned(color);
+                    }
+                }
+                out.writeLong(Double.doubleToLongBits(notification.getGridAngle()));
+                writeTires(notification.getTires());
+                out.write(notification.isControlled() ? 1 : 0);
+            } else if (message instanceof CurveStopNotification) {
+                out.write(CURVE_STOP);
+                writeId(((Notification) message).getPlayerId());
+                writeSigned(((CurveStopNotification) message).getCurveStops());
+            } else if (message instanceof HitpointNotification) {
+                final HitpointNotification notification = (HitpointNotification) message;
+                out.write(HITPOINT);
+                writeId(notification.getPlayerId());
+                writeSigned(notification.getHitpoints());
+                out.write(notification.getSource() == null ? 0 : notification.getSource().ordinal() + 1);
+            } else if (message instanceof LapChangeNotification) {
+                out.write(LAP_CHANGE);
+                writeId(((Notification) message).getPlayerId());
+                writeSigned(((LapChangeNotification) message).getLapsRemaining());
+            } else if (message instanceof MovementNotification) {
+                out.write(MOVEMENT);
+                writeId(((Notification) message).getPlayerId());
+                writeVarint(((MovementNotification) message).getNodeId());
+            } else if (message instanceof RollNotification) {
+                final RollNotification notification = (RollNotification) message;
+                out.write(ROLL);
+                writeId(notification.getPlayerId());
+                out.write(notification.getGear());
+                writeSigned(notification.getRoll());
+            } else if (message instanceof TireChangeNotification) {
+                out.write(TIRE_CHANGE);
+                writeId(((Notification) message).getPlayerId());
+                writeTires(((TireChangeNotification) message).getTires());
+            } else if (message instanceof Standings) {
+                final String[] playerIds = ((Standings) message).getPlayerIds();
+                out.write(STANDINGS);
+                writeVarint(playerIds.length);
+                for (String playerId : playerIds) {
+                    writeId(playerId);
+                }
+            } else if (message instanceof WeatherNotification) {
+                final List<Weather> forecast = ((WeatherNotification) message).getWeatherForecast();
+                out.write(WEATHER);
+                writeVarint(forecast == null ? 0 : forecast.size() + 1);
+                if (forecast != null) {
+                    for (Weather weather : forecast) {
+                        out.write(weather.ordinal());
+                    }
+                }
+            } else if (message instanceof FinalStandings) {
+                final FinalStandings standings = (FinalStandings) message;
+                out.write(FINAL_STANDINGS);
+                out.write(standings.isSingleRace() ? 0 : 1);
+                writeVarint(standings.getStats().length);
+                for (PlayerStats stats : standings.getStats()) {
+                    writeStats(stats);
+                }
+            } else if (message instanceof Kick) {
+                out.write(KICK);
+                writeString(((Kick) message).getReason());
+            } else if (message instanceof GameState) {
+                writeGameState((GameState) message);
+            } else if (message instanceof Moves) {
+                final Moves moves = (Moves) message;
+                out.write(MOVES);
+                writeGameId(moves.getGame());
+                writeVarint(moves.getMoves() == null ? 0 : moves.getMoves().size() + 1);
+                if (moves.getMoves() != null) {
+                    for (ValidMove move : moves.getMoves()) {
+                        writeValidMove(move);
+                    }
+                }
+            } else if (message instanceof Gear) {
+                final Gear gear = (Gear) message;
+                out.write(GEAR);
+                writeOptional(gear.getGear());
+                writeTires(gear.getTires());
+            } else if (message instanceof SelectedIndex) {
+                out.write(SELECTED_INDEX);
+                writeOptional(((SelectedIndex) message).getIndex());
+            } else if (message instanceof TrackOffer) {
+                out.write(TRACK_OFFER);
+                writeString(((TrackOffer) message).hash);
+            } else if (message instanceof TrackRequest) {
+                out.write(TRACK_REQUEST);
+                writeString(((TrackRequest) message).hash);
+            } else if (message instanceof TrackBundle) {
+                final TrackBundle bundle = (TrackBundle) message;
+                out.write(TRACK_BUNDLE);
+                writeString(bundle.hash);
+                writeVarint(bundle.bytes.length);
+                out.write(bundle.bytes);
+            } else {
+                out.write(SERIALIZED);
+                final ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(message);
+                oos.flush();
+            }
+        }
+
+        private void writeGameState(GameState gameState) throws IOException {
+            final String gameId = gameState.getGame() == null ? null : gameState.getGame().getGameId();
+            final boolean delta = !base.isEmpty() && Objects.equals(gameId, baseGameId);
+            out.write(delta ? GAME_STATE_DELTA : GAME_STATE);
+            writeGameId(gameState.getGame());
+            writeVarint(gameState.getPlayers().size());
+            final Map<String, Snapshot> snapshots = new HashMap<>();
+            final CRC32 checksum = new CRC32();
+            for (PlayerState playerState : gameState.getPlayers()) {
+                final Snapshot snapshot = new Snapshot(playerState);
+                writeId(playerState.getPlayerId());
+                if (delta && snapshot.equals(base.get(playerState.getPlayerId()))) {
+                    out.write(UNCHANGED);
+                } else {
+                    writePlayerState(playerState);
+                }
+                snapshot.update(checksum, playerState.getPlayerId());
+                snapshots.put(playerState.getPlayerId(), snapshot);
+            }
+            if (delta) {
+                out.writeInt((int) checksum.getValue());
+            }
+            baseGameId = gameId;
+            base = snapshots;
+        }
+
+        private void writePlayerState(PlayerState playerState) throws IOException {
+            final Integer gear = playerState.getGear();
+            final Integer hitpoints = playerState.getHitpoints();
+            final Tires tires = playerState.getTires();
+            final Integer[] fields = { gear, hitpoints, playerState.getNodeId(), playerState.getStops(), playerState.getLeeway(), playerState.getLapsToGo() };
+            int mask = 0;
+            for (int i = 0; i < fields.length; ++i) {
+                if (fields[i] != null) {
+                    mask |= 1 << i;
+                }
+            }
+            out.write(mask);
+            // Gear, tire type and hitpoints share one varint, since they are small
+            final long packed = (zigzag(hitpoints == null ? 0 : hitpoints) << 5) | ((tires == null ? 0 : tires.getType().ordinal() + 1) << 3) | (gear == null ? 0 : gear);
+            writeVarint(packed);
+            if (tires != null) {
+                writeVarint(tires.getAge());
+            }
+            for (int i = 2; i < fields.length; ++i) {
+                if (fields[i] != null) {
+                    writeSigned(fields[i]);
+                }
+            }
+        }
+
+        private void writeValidMove(ValidMove move) throws IOException {
+            final Integer[] fields = { move.getNodeId(), move.getOvershoot(), move.getBraking() };
+            int mask = 0;
+            for (int i = 0; i < fields.length; ++i) {
+                if (fields[i] != null) {
+                    mask |= 1 << i;
+                }
+            }
+            out.write(mask);
+            for (Integer field : fields) {
+                if (field != null) {
+                    writeSigned(field);
+                }
+            }
+        }
+
+        private void writeStats(PlayerStats stats) throws IOException {
+            writeId(stats.playerId);
+            out.write(stats.id == null ? 0 : 1);
+            if (stats.id != null) {
+                out.writeLong(stats.id.getMostSignificantBits());
+                out.writeLong(stats.id.getLeastSignificantBits());
+            }
+            writeSigned(stats.position);
+            writeSigned(stats.turns);
+            writeSigned(stats.lapsToGo);
+            writeVarint(zigzag(stats.timeUsed));
+            writeSigned(stats.exceptions);
+            writeSigned(stats.hitpoints);
+            out.writeLong(Double.doubleToLongBits(stats.distance));
+            writeSigned(stats.gridPosition);
+            writeSigned(stats.pitStops);
+        }
+
+        private void writeTires(Tires tires) throws IOException {
+            writeVarint(tires == null ? 0 : ((long) tires.getAge() << 2) | (tires.getType().ordinal() + 1));
+        }
+
+        private void writeGameId(GameId gameId) throws IOException {
+            out.write(gameId == null ? 0 : 1);
+            if (gameId != null) {
+                writeId(gameId.getGameId());
+            }
+        }
+
+        private void writeId(String id) throws IOException {
+            if (id == null) {
+                writeVarint(NULL_STRING);
+                return;
+            }
+            final Integer index = strings.get(id);
+            if (index == null) {
+                writeVarint(NEW_STRING);
+                writeString(id);
+                strings.put(id, strings.size());
+                stringBytes += id.length();
+            } else {
+                writeVarint(index + 2);
+            }
+        }
+
+        private void writeString(String str) throws IOException {
+            if (str == null) {
+                writeVarint(0);
+                return;
+            }
+            final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1);
+            out.write(bytes);
+        }
+
+        private void writeOptional(Integer value) throws IOException {
+            out.write(value == null ? 0 : 1);
+            if (value != null) {
+                writeSigned(value);
+            }
+        }
+
+        private void writeSigned(int value) throws IOException {
+            writeVarint(zigzag(value));
+        }
+
+        private void writeVarint(long value) throws IOException {
+            WireCodec.writeVarint(out, value);
+        }
+    }
+
+    static final class Decoder {
+        // Player id, id flag, distance and eight varints
+        private static final int MIN_STATS_BYTES = 18;
+        private final List<String> strings = new ArrayList<>();
+        private long stringBytes;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private Map<String, Snapshot> base = new HashMap<>();
+
+        /**
+         * Reads the next length prefixed message from the stream.
+         */
+        Object read(DataInputStream stream) throws IOException, ClassNotFoundException {
+            final long length = readVarint(stream);
+            if (length <= 0 || length > MAX_MESSAGE_LENGTH) {
+                throw new StreamCorruptedException("Invalid message length " + length);
+            }
+            if (buffer.length < length) {
+                buffer = new byte[(int) length];
+            }
+            stream.readFully(buffer, 0, (int) length);
+            return decode(new DataInputStream(new ByteArrayInputStream(buffer, 0, (int) length)));
+        }
+
+        void trim() {
+            if (buffer.length > BUFFER_SIZE) {
+                buffer = new byte[BUFFER_SIZE];
+            }
+        }
+
+        long getRetainedBytes() {
+            return buffer.length + stringBytes + base.size() * Snapshot.BYTES;
+        }
+
+        private Object decode(DataInputStream in) throws IOException, ClassNotFoundException {
+            final int type = in.readUnsignedByte();
+            switch (type) {
+                case SERIALIZED:
+                    return new ObjectInputStream(in).readObject();
+                case NOTIFICATION:
+                    return new Notification(readId(in));
+                case CREATED_PLAYER: {
+                    final String playerId = readId(in);
+                    final String name = readString(in);
+                    final int nodeId = (int) readVarint(in);
+                    final int hitpoints = readSigned(in);
+                    final int lapsToGo = readSigned(in);
+                    final long colorCount = readVarint(in);
+                    int[] colors = null;
+                    if (colorCount > 0) {
+                        colors = new int[checkCount(colorCount - 1, in, 1)];
+                        for (int i = 0; i < colors.length; ++i) {
+                            colors[i] = readSigned(in);
+                        }
+                    }
+                    final double angle = Double.longBitsToDouble(in.readLong());
+                    final Tires tires = readTires(in);
+                    return new CreatedPlayerNotification(playerId, name, nodeId, hitpoints, lapsToGo, colors, angle, tires).controlled(in.readBoolean());
+                }
+                case CURVE_STOP:
+                    return new CurveStopNotification(readId(in), readSigned(in));
+                case HITPOINT: {
+                    final String playerId = readId(in);
+                    final int hitpoints = readSigned(in);
+                    final int source = in.readUnsignedByte();
+                    return new HitpointNotification(playerId, hitpoints, source == 0 ? null : fromOrdinal(sources, source - 1));
+                }
+                case LAP_CHANGE:
+                    return new LapChangeNotification(readId(in), readSigned(in));
+                case MOVEMENT:
+                    return new MovementNotification(readId(in), (int) readVarint(in));
+                case ROLL: {
+                    final String playerId = readId(in);
+                    final int gear = in.readUnsignedByte();
+                    return new RollNotification(playerId, gear, readSigned(in));
+                }
+                case TIRE_CHANGE:
+                    return new TireChangeNotification(readId(in), readTires(in));
+                case STANDINGS: {
+                    final String[] playerIds = new String[checkCount(readVarint(in), in, 1)];
+                    for (int i = 0; i < playerIds.length; ++i) {
+                        playerIds[i] = readId(in);
+                    }
+                    return new Standings(playerIds);
+                }
+                case WEATHER: {
+                    final long count = readVarint(in);
+                    if (count == 0) {
+                        return new WeatherNotification(null);
+                    }
+                    final List<Weather> forecast = new ArrayList<>(checkCount(count - 1, in, 1));
+                    for (int i = 0; i < count - 1; ++i) {
+                        forecast.add(fromOrdinal(weathers, in.readUnsignedByte()));
+                    }
+                    return new WeatherNotification(forecast);
+                }
+                case FINAL_STANDINGS: {
+                    final boolean season = in.readBoolean();
+                    final PlayerStats[] stats = new PlayerStats[checkCount(readVarint(in), in, MIN_STATS_BYTES)];
+                    for (int i = 0; i < stats.length; ++i) {
+                        stats[i] = readStats(in);
+                    }
+                    return new FinalStandings(Arrays.asList(stats), season);
+                }
+                case KICK:
+                    return new Kick(readString(in));
+                case GAME_STATE:
+                case GAME_STATE_DELTA:
+                    return readGameState(in, type == GAME_STATE_DELTA);
+                case MOVES: {
+                    final Moves moves = new Moves().game(readGameId(in));
+                    final long count = readVarint(in);
+                    if (count > 0) {
+                        final List<ValidMove> validMoves = new ArrayList<>(checkCount(count - 1, in, 1));
+                        for (int i = 0; i < count - 1; ++i) {
+                            validMoves.add(readValidMove(in));
+                        }
+                        moves.setMoves(validMoves);
+                    }
+                    return moves;
+                }
+                case GEAR: {
+                    final Integer gear = readOptional(in);
+                    return new Gear().gear(gear).tires(readTires(in));
+                }
+                case SELECTED_INDEX:
+                    return new SelectedIndex().index(readOptional(in));
+                case TRACK_OFFER:
+                    return new TrackOffer(readString(in));
+                case TRACK_REQUEST:
+                    return new TrackRequest(readString(in));
+                case TRACK_BUNDLE: {
+                    final String hash = readString(in);
+                    final byte[] bytes = new byte[checkCount(readVarint(in), in, 1)];
+                    in.readFully(bytes);
+                    return new TrackBundle(hash, bytes);
+                }
+                default:
+                    throw new StreamCorruptedException("Unknown message type " + type);
+            }
+        }
+
+        private GameState readGameState(DataInputStream in, boolean delta) throws IOException {
+            final GameState gameState = new GameState().game(readGameId(in));
+            final int count = checkCount(readVarint(in), in, 2);
+            final Map<String, Snapshot> snapshots = new HashMap<>();
+            final CRC32 checksum = new CRC32();
+            for (int i = 0; i < count; ++i) {
+                final String playerId = readId(in);
+                final int mask = in.readUnsignedByte();
+                final PlayerState playerState;
+                final Snapshot snapshot;
+                if (mask == UNCHANGED) {
+                    snapshot = base.get(playerId);
+                    if (!delta || snapshot == null) {
+                        throw new StreamCorruptedException("No previous state for player " + playerId);
+                    }
+                    playerState = snapshot.toPlayerState(playerId);
+                } else {
+                    playerState = readPlayerState(playerId, mask, in);
+                    snapshot = new Snapshot(playerState);
+                }
+                gameState.addPlayersItem(playerState);
+                snapshot.update(checksum, playerId);
+                snapshots.put(playerId, snapshot);
+            }
+            if (delta && in.readInt() != (int) checksum.getValue()) {
+                throw new StreamCorruptedException("Game state checksum mismatch");
+            }
+            base = snapshots;
+            return gameState;
+        }
+
+        private PlayerState readPlayerState(String playerId, int mask, DataInputStream in) throws IOException {
+            final PlayerState playerState = new PlayerState().playerId(playerId);
+            final long packed = readVarint(in);
+            final int tireType = (int) ((packed >>> 3) & 3);
+            if ((mask & 1) != 0) {
+                playerState.setGear((int) (packed & 7));
+            }
+            if ((mask & 2) != 0) {
+                playerState.setHitpoints((int) unzigzag(packed >>> 5));
+            }
+            if (tireType != 0) {
+                playerState.setTires(createTires(fromOrdinal(tireTypes, tireType - 1), (int) readVarint(in)));
+            }
+            if ((mask & 4) != 0) {
+                playerState.setNodeId(readSigned(in));
+            }
+            if ((mask & 8) != 0) {
+                playerState.setStops(readSigned(in));
+            }
+            if ((mask & 16) != 0) {
+                playerState.setLeeway(readSigned(in));
+            }
+            if ((mask & 32) != 0) {
+                playerState.setLapsToGo(readSigned(in));
+            }
+            return playerState;
+        }
+
+        private ValidMove readValidMove(DataInputStream in) throws IOException {
+            final ValidMove move = new ValidMove();
+            final int mask = in.readUnsignedByte();
+            if ((mask & 1) != 0) {
+                move.setNodeId(readSigned(in));
+            }
+            if ((mask & 2) != 0) {
+                move.setOvershoot(readSigned(in));
+            }
+            if ((mask & 4) != 0) {
+                move.setBraking(readSigned(in));
+            }
+            return move;
+        }
+
+        private PlayerStats readStats(DataInputStream in) throws IOException {
+            final PlayerStats stats = new PlayerStats();
+            stats.playerId = readId(in);
+            if (in.readBoolean()) {
+                stats.id = new UUID(in.readLong(), in.readLong());
+            }
+            stats.position = readSigned(in);
+            stats.turns = readSigned(in);
+            stats.lapsToGo = readSigned(in);
+            stats.timeUsed = unzigzag(readVarint(in));
+            stats.exceptions = readSigned(in);
+            stats.hitpoints = readSigned(in);
+            stats.distance = Double.longBitsToDouble(in.readLong());
+            stats.gridPosition = readSigned(in);
+            stats.pitStops = readSigned(in);
+            return stats;
+        }
+
+        private Tires readTires(DataInputStream in) throws IOException {
+            final long value = readVarint(in);
+            if (value == 0) {
+                return null;
+            }
+            return createTires(fromOrdinal(tireTypes, (int) (value & 3) - 1), (int) (value >>> 2));
+        }
+
+        private GameId readGameId(DataInputStream in) throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+            return new GameId().gameId(readId(in));
+        }
+
+        private String readId(DataInputStream in) throws IOException {
+            final long index = readVarint(in);
+            if (index == NULL_STRING) {
+                return null;
+            }
+            if (index == NEW_STRING) {
+                final String id = readString(in);
+                if (id == null) {
+                    throw new StreamCorruptedException("Missing string");
+                }
+                strings.add(id);
+                stringBytes += id.length();
+                return id;
+            }
+            if (index < 0 || index - 2 >= strings.size()) {
+                throw new StreamCorruptedException("Unknown string index " + index);
+            }
+            return strings.get((int) index - 2);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            final long length = readVarint(in);
+            if (length == 0) {
+                return null;
+            }
+            final byte[] bytes = new byte[checkCount(length - 1, in, 1)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Checks that the message has room for the given number of items of at least the given size,
+         * so that a corrupted count cannot allocate more than the message does.
+         */
+        private static int checkCount(long count, DataInputStream in, int minItemBytes) throws IOException {
+            if (count < 0 || count > in.available() / minItemBytes) {
+                throw new StreamCorruptedException("Invalid count " + count);
+            }
+            return (int) count;
+        }
+
+        private static <T> T fromOrdinal(T[] values, int ordinal) throws StreamCorruptedException {
+            if (ordinal < 0 || ordinal >= values.length) {
+                throw new StreamCorruptedException("Invalid " + values.getClass().getComponentType().getSimpleName() + " " + ordinal);
+            }
+            return values[ordinal];
+        }
+
+        private static Integer readOptional(DataInputStream in) throws IOException {
+            return in.readBoolean() ? readSigned(in) : null;
+        }
+
+        private static int readSigned(DataInputStream in) throws IOException {
+            return (int) unzigzag(readVarint(in));
+        }
+    }
+
+    /**
+     * Track data offered by the server, identified by the hash of its bundle.
+     */
+    static final class TrackOffer {
+        final String hash;
+
+        TrackOffer(String hash) {
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Request of a client for the bundle of an offered track, which it does not have cached.
+     */
+    static final class TrackRequest {
+        final String hash;
+
+        TrackRequest(String hash) {
+            this.hash = hash;
+        }
+    }
+
+    static final class TrackBundle {
+        final String hash;
+        final byte[] bytes;
+
+        TrackBundle(String hash, byte[] bytes) {
+            this.hash = hash;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Immutable copy of a player state, since tires of the player states are shared with the players.
+     */
+    private static final class Snapshot {
+        // Rough size in memory, for reporting retained bytes
+        private static final int BYTES = 64;
+
+        private final int mask;
+        private final int gear;
+        private final int hitpoints;
+        private final int nodeId;
+        private final int stops;
+        private final int leeway;
+        private final int lapsToGo;
+        private final int tireType;
+        private final int tireAge;
+
+        private Snapshot(PlayerState playerState) {
+            final Integer[] fields = { playerState.getGear(), playerState.getHitpoints(), playerState.getNodeId(), playerState.getStops(), playerState.getLeeway(), playerState.getLapsToGo() };
+            int mask = 0;
+            for (int i = 0; i < fields.length; ++i) {
+                if (fields[i] != null) {
+                    mask |= 1 << i;
+                }
+            }
+            this.mask = mask;
+            gear = valueOf(fields[0]);
+            hitpoints = valueOf(fields[1]);
+            nodeId = valueOf(fields[2]);
+            stops = valueOf(fields[3]);
+            leeway = valueOf(fields[4]);
+            lapsToGo = valueOf(fields[5]);
+            final Tires tires = playerState.getTires();
+            tireType = tires == null ? 0 : tires.getType().ordinal() + 1;
+            tireAge = tires == null ? 0 : tires.getAge();
+        }
+
+        private static int valueOf(Integer value) {
+            return value == null ? 0 : value;
+        }
+
+        private PlayerState toPlayerState(String playerId) {
+            final PlayerState playerState = new PlayerState().playerId(playerId);
+            if ((mask & 1) != 0) {
+                playerState.setGear(gear);
+            }
+            if ((mask & 2) != 0) {
+                playerState.setHitpoints(hitpoints);
+            }
+            if ((mask & 4) != 0) {
+                playerState.setNodeId(nodeId);
+            }
+            if ((mask & 8) != 0) {
+                playerState.setStops(stops);
+            }
+            if ((mask & 16) != 0) {
+                playerState.setLeeway(leeway);
+            }
+            if ((mask & 32) != 0) {
+                playerState.setLapsToGo(lapsToGo);
+            }
+            if (tireType != 0) {
+                playerState.setTires(createTires(tireTypes[tireType - 1], tireAge));
+            }
+            return playerState;
+        }
+
+        private void update(CRC32 checksum, String playerId) {
+            if (playerId != null) {
+                checksum.update(playerId.getBytes(StandardCharsets.UTF_8));
+            }
+            for (int value : new int[] { mask, gear, hitpoints, nodeId, stops, leeway, lapsToGo, tireType, tireAge }) {
+                checksum.update(value >>> 24);
+                checksum.update(value >>> 16);
+                checksum.update(value >>> 8);
+                checksum.update(value);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Snapshot other = (Snapshot) o;
+            return mask == other.mask && gear == other.gear && hitpoints == other.hitpoints && nodeId == other.nodeId
+                    && stops == other.stops && leeway == other.leeway && lapsToGo == other.lapsToGo
+                    && tireType == other.tireType && tireAge == other.tireAge;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mask, gear, hitpoints, nodeId, stops, leeway, lapsToGo, tireType, tireAge);
+        }
+    }
+
+    private static Tires createTires(Tires.Type type, int age) {
+        final Tires tires = new Tires(type);
+        for (int i = 0; i < age; ++i) {
+            tires.increaseAge();
+        }
+        return tires;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    private static final class Output extends ByteArrayOutputStream {
+        private final DataOutputStream data = new DataOutputStream(this);
+
+        Output() {
+            super(BUFFER_SIZE);
+        }
+
+        void trim() {
+            if (buf.length > BUFFER_SIZE) {
+                buf = new byte[BUFFER_SIZE];
+                count = 0;
+            }
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        void writeLong(long value) throws IOException {
+            data.writeLong(value);
+        }
+
+        void writeInt(int value) throws IOException {
+            data.writeInt(value);
+        }
+    }
+}
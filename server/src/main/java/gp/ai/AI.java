@@ -29,6 +29,22 @@ public interface AI {
      */
     SelectedIndex selectMove(Moves moves);
 
+    /**
+     * Selects the gear like selectGear(GameState), but returns the best gear found so far
+     * when the deadline expires. AIs which do not search ignore the deadline.
+     */
+    default Gear selectGear(GameState gameState, Deadline deadline) {
+        return selectGear(gameState);
+    }
+
+    /**
+     * Selects the move like selectMove(Moves), but returns the best move found so far
+     * when the deadline expires. AIs which do not search ignore the deadline.
+     */
+    default SelectedIndex selectMove(Moves moves, Deadline deadline) {
+        return selectMove(moves);
+    }
+
     default int getHitpointsMultiplier() { return 100; }
 
     void notify(Object notification);
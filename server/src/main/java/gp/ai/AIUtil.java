@@ -60,29 +60,34 @@ public abstract class AIUtil {
 
     // Returns -1 if the next curve is not reachable. Otherwise returns the minimum distance to the curve.
     static int getMinDistanceToNextCurve(Node node, Set<Node> blockedNodes) {
+        final Integer distance = getGraph(node).tables().getMinDistanceToNextCurve(node.getId(), blockedNodes);
+        return distance != null ? distance : searchMinDistanceToNextCurve(node, blockedNodes);
+    }
+
+    static int searchMinDistanceToNextCurve(Node node, Set<Node> blockedNodes) {
+        final TrackGraph graph = getGraph(node);
         if (node.isCurve()) {
             final Map<Node, Integer> nextStraight = findMinDistancesToNextAreaStart(node, false, blockedNodes);
-            if (nextStraight.isEmpty()) {
-                return -1;
+            int minDistance = -1;
+            for (Map.Entry<Node, Integer> e : nextStraight.entrySet()) {
+                final int extraDistance = findMinDistanceToNextAreaStart(graph, e.getKey().getId(), blockedNodes);
+                if (extraDistance != -1 && (minDistance == -1 || extraDistance + e.getValue() < minDistance)) {
+                    minDistance = extraDistance + e.getValue();
+                }
             }
-            return nextStraight
-                    .entrySet()
-                    .stream()
-                    .map(e -> {
-                        final int extraDistance = findMinDistancesToNextAreaStart(e.getKey(), false, blockedNodes).values().stream().mapToInt(Integer::intValue).min().orElse(-1);
-                        return extraDistance == -1 ? -1 : extraDistance + e.getValue();
-                    })
-                    .mapToInt(Integer::intValue)
-                    .filter(i -> i != -1)
-                    .min()
-                    .orElse(-1);
+            return minDistance;
         } else {
-            return findMinDistancesToNextAreaStart(node, false, blockedNodes).values().stream().mapToInt(Integer::intValue).min().orElse(-1);
+            return findMinDistanceToNextAreaStart(graph, node.getId(), blockedNodes);
         }
     }
 
     // Returns the maximum distance without taking damage.
     static int getMaxDistanceWithoutDamage(Node startNode, int stopCount, Set<Node> blockedNodes) {
+        final Integer distance = getGraph(startNode).tables().getMaxDistanceWithoutDamage(startNode.getId(), stopCount, blockedNodes);
+        return distance != null ? distance : searchMaxDistanceWithoutDamage(startNode, stopCount, blockedNodes);
+    }
+
+    static int searchMaxDistanceWithoutDamage(Node startNode, int stopCount, Set<Node> blockedNodes) {
         if (startNode.getStopCount() > stopCount) {
             return findMaxDistanceInThisArea(startNode, blockedNodes);
         }
@@ -93,7 +98,7 @@ public abstract class AIUtil {
         return nextAreaStart
                 .entrySet()
                 .stream()
-                .map(e -> getMaxDistanceWithoutDamage(e.getKey(), 0, blockedNodes) + e.getValue())
+                .map(e -> searchMaxDistanceWithoutDamage(e.getKey(), 0, blockedNodes) + e.getValue())
                 .mapToInt(Integer::intValue)
                 .max()
                 .orElse(0);
@@ -101,6 +106,10 @@ public abstract class AIUtil {
 
     // Returns the minimum distance to take damage without opponents.
     static int getMinDistanceToTakeDamage(Node startNode, int stopCount) {
+        return getGraph(startNode).tables().getMinDistanceToTakeDamage(startNode.getId(), stopCount);
+    }
+
+    static int searchMinDistanceToTakeDamage(Node startNode, int stopCount) {
         final Map<Node, Integer> nextAreaStart = findMinDistancesToNextAreaStart(startNode, false);
         if (nextAreaStart.isEmpty()) {
             return 1;
@@ -111,58 +120,75 @@ public abstract class AIUtil {
         return nextAreaStart
                 .entrySet()
                 .stream()
-                .map(e -> getMinDistanceToTakeDamage(e.getKey(), 0) + e.getValue())
+                .map(e -> searchMinDistanceToTakeDamage(e.getKey(), 0) + e.getValue())
                 .mapToInt(Integer::intValue)
                 .min()
                 .orElse(1);
     }
 
     static int getMinDistanceToPits(Node startNode, Set<Node> blockedNodes) {
-        final Deque<Node> work = new ArrayDeque<>();
-        final Map<Node, Integer> distances = new HashMap<>();
-        distances.put(startNode, 0);
-        work.addLast(startNode);
-        while (!work.isEmpty()) {
-            final Node node = work.removeFirst();
+        final Integer distance = getGraph(startNode).tables().getMinDistanceToPits(startNode.getId(), blockedNodes);
+        return distance != null ? distance : searchMinDistanceToPits(startNode, blockedNodes);
+    }
+
+    static int searchMinDistanceToPits(Node startNode, Set<Node> blockedNodes) {
+        final TrackGraph graph = getGraph(startNode);
+        final TrackGraph.Scratch distances = graph.scratch();
+        distances.clear();
+        distances.put(startNode.getId(), 0);
+        distances.addLast(startNode.getId());
+        int maxDistance = 0;
+        while (!distances.isEmpty()) {
+            final int node = distances.removeFirst();
             final int newDistance = distances.get(node) + 1;
-            node.childStream().filter(child -> !blockedNodes.contains(child)).forEach(child -> {
-                final Integer distance = distances.get(child);
-                if (distance == null) {
-                    distances.put(child, newDistance);
-                    if (child.isPit()) {
-                        work.clear();
-                    } else {
-                        work.addLast(child);
-                    }
+            for (int i = graph.childStart(node), end = graph.childEnd(node); i < end; ++i) {
+                final int child = graph.child(i);
+                if (distances.contains(child) || isBlocked(graph, child, blockedNodes)) {
+                    continue;
                 }
-            });
+                distances.put(child, newDistance);
+                maxDistance = Math.max(maxDistance, newDistance);
+                if (graph.isPit(child)) {
+                    distances.clearWork();
+                } else {
+                    distances.addLast(child);
+                }
+            }
         }
-        return distances.values().stream().mapToInt(Integer::intValue).max().orElse(-1);
+        return maxDistance;
     }
 
     private static int findMaxDistanceInThisArea(Node startNode, Set<Node> blockedNodes) {
+        final TrackGraph graph = getGraph(startNode);
         final boolean startNodeIsCurve = startNode.isCurve();
-        final Deque<Node> work = new ArrayDeque<>();
-        final Map<Node, Integer> matchingTypeDistances = new HashMap<>();
-        matchingTypeDistances.put(startNode, 0);
-        work.addLast(startNode);
-        while (!work.isEmpty()) {
-            final Node node = work.removeFirst();
+        final TrackGraph.Scratch matchingTypeDistances = graph.scratch();
+        matchingTypeDistances.clear();
+        matchingTypeDistances.put(startNode.getId(), 0);
+        matchingTypeDistances.addLast(startNode.getId());
+        int maxDistance = 0;
+        while (!matchingTypeDistances.isEmpty()) {
+            final int node = matchingTypeDistances.removeFirst();
             final int newDistance = matchingTypeDistances.get(node) + 1;
-            node.childStream().filter(child -> !blockedNodes.contains(child)).forEach(child -> {
-                if (child.isCurve() == startNodeIsCurve) {
-                    final Integer distance = matchingTypeDistances.get(child);
-                    if (distance == null || (startNodeIsCurve && newDistance > distance)) {
-                        matchingTypeDistances.put(child, newDistance);
-                        work.addLast(child);
-                    }
+            for (int i = graph.childStart(node), end = graph.childEnd(node); i < end; ++i) {
+                final int child = graph.child(i);
+                if (graph.isCurve(child) != startNodeIsCurve || isBlocked(graph, child, blockedNodes)) {
+                    continue;
                 }
-            });
+                if (!matchingTypeDistances.contains(child) || (startNodeIsCurve && newDistance > matchingTypeDistances.get(child))) {
+                    matchingTypeDistances.put(child, newDistance);
+                    matchingTypeDistances.addLast(child);
+                    maxDistance = Math.max(maxDistance, newDistance);
+                }
+            }
         }
-        return matchingTypeDistances.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+        return maxDistance;
     }
 
     static int getStopsRequiredInNextCurve(Node startNode) {
+        return getGraph(startNode).tables().getStopsRequiredInNextCurve(startNode.getId());
+    }
+
+    static int searchStopsRequiredInNextCurve(Node startNode) {
         final Node nonCurve;
         if (startNode.isCurve()) {
             nonCurve = recurseWhile(startNode, true, false);
@@ -174,29 +200,38 @@ public abstract class AIUtil {
     }
 
     static Node recurseWhile(Node node, boolean isCurve, boolean inPits) {
-        if (node.isCurve() == isCurve) {
-            final Node next;
-            if (inPits) {
-                next = node.childStream().findAny().orElse(null);
-            } else {
-                next = node.childStream().filter(child -> !child.isPit()).findAny().orElse(null);
+        final TrackGraph graph = getGraph(node);
+        int current = node.getId();
+        while (graph.isCurve(current) == isCurve) {
+            int next = -1;
+            for (int i = graph.childStart(current), end = graph.childEnd(current); i < end; ++i) {
+                final int child = graph.child(i);
+                if (inPits || !graph.isPit(child)) {
+                    next = child;
+                    break;
+                }
             }
-            return next == null ? node : recurseWhile(next, isCurve, inPits);
-        } else {
-            return node;
+            if (next == -1) {
+                break;
+            }
+            current = next;
         }
+        return graph.node(current);
     }
 
     private static int findMaxDistanceToStraight(Node startNode) {
-        if (!startNode.isCurve()) {
+        return findMaxDistanceToStraight(getGraph(startNode), startNode.getId());
+    }
+
+    private static int findMaxDistanceToStraight(TrackGraph graph, int node) {
+        if (!graph.isCurve(node)) {
             return 0;
         }
-        return startNode
-                .childStream()
-                .map(AIUtil::findMaxDistanceToStraight)
-                .mapToInt(Integer::intValue)
-                .max()
-                .orElse(0) + 1;
+        int maxDistance = 0;
+        for (int i = graph.childStart(node), end = graph.childEnd(node); i < end; ++i) {
+            maxDistance = Math.max(maxDistance, findMaxDistanceToStraight(graph, graph.child(i)));
+        }
+        return maxDistance + 1;
     }
 
     private static int getMaxDistanceToNextStraight(Node startNode) {
@@ -232,30 +267,32 @@ public abstract class AIUtil {
     }
 
     private static Map<Node, Integer> findMaxDistancesToNextAreaStart(Node startNode, Set<Node> blockedNodes) {
-        final NodeType type = startNode.getType();
         if (startNode.isCurve() || startNode.isPit()) {
-            final Deque<Node> work = new ArrayDeque<>();
-            final Map<Node, Integer> matchingTypeDistances = new HashMap<>();
+            final TrackGraph graph = getGraph(startNode);
+            final int start = startNode.getId();
+            // Nodes of the matching type stay in the work stack, others are only recorded
+            final TrackGraph.Scratch distances = graph.scratch();
             final Map<Node, Integer> nonMatchingTypeDistances = new HashMap<>();
-            matchingTypeDistances.put(startNode, 0);
-            work.addLast(startNode);
-            while (!work.isEmpty()) {
-                final Node node = work.removeLast();
-                final int newDistance = matchingTypeDistances.get(node) + 1;
-                node.childStream().filter(child -> !blockedNodes.contains(child)).forEach(child -> {
-                    if (child.getType() == type) {
-                        final Integer distance = matchingTypeDistances.get(child);
-                        if (distance == null || newDistance > distance) {
-                            matchingTypeDistances.put(child, newDistance);
-                            work.addLast(child);
-                        }
-                    } else {
-                        final Integer distance = nonMatchingTypeDistances.get(child);
-                        if (distance == null || newDistance > distance) {
-                            nonMatchingTypeDistances.put(child, newDistance);
+            distances.clear();
+            distances.put(start, 0);
+            distances.addLast(start);
+            while (!distances.isEmpty()) {
+                final int node = distances.removeLast();
+                final int newDistance = distances.get(node) + 1;
+                for (int i = graph.childStart(node), end = graph.childEnd(node); i < end; ++i) {
+                    final int child = graph.child(i);
+                    if (isBlocked(graph, child, blockedNodes)) {
+                        continue;
+                    }
+                    if (!distances.contains(child) || newDistance > distances.get(child)) {
+                        distances.put(child, newDistance);
+                        if (graph.sameType(child, start)) {
+                            distances.addLast(child);
+                        } else {
+                            nonMatchingTypeDistances.put(graph.node(child), newDistance);
                         }
                     }
-                });
+                }
             }
             return nonMatchingTypeDistances;
         } else {
@@ -268,30 +305,71 @@ public abstract class AIUtil {
     }
 
     private static Map<Node, Integer> findMinDistancesToNextAreaStart(Node startNode, boolean allowNonOptimalLastMove, Set<Node> blockedNodes) {
+        final TrackGraph graph = getGraph(startNode);
         final boolean startNodeIsCurve = startNode.isCurve();
-        final Deque<Node> work = new ArrayDeque<>();
-        final Map<Node, Integer> matchingTypeDistances = new HashMap<>();
+        final TrackGraph.Scratch distances = graph.scratch();
         final Map<Node, Integer> nonMatchingTypeDistances = new HashMap<>();
-        matchingTypeDistances.put(startNode, 0);
-        work.addLast(startNode);
-        while (!work.isEmpty()) {
-            final Node node = work.removeFirst();
-            final int newDistance = matchingTypeDistances.get(node) + 1;
-            node.childStream().filter(child -> !blockedNodes.contains(child)).forEach(child -> {
-                if (child.isCurve() == startNodeIsCurve) {
-                    final Integer distance = matchingTypeDistances.get(child);
-                    if (distance == null) {
-                        matchingTypeDistances.put(child, newDistance);
-                        work.addLast(child);
-                    }
-                } else {
-                    final Integer distance = nonMatchingTypeDistances.get(child);
-                    if (distance == null || (allowNonOptimalLastMove && newDistance > distance)) {
-                        nonMatchingTypeDistances.put(child, newDistance);
+        distances.clear();
+        distances.put(startNode.getId(), 0);
+        distances.addLast(startNode.getId());
+        while (!distances.isEmpty()) {
+            final int node = distances.removeFirst();
+            final int newDistance = distances.get(node) + 1;
+            for (int i = graph.childStart(node), end = graph.childEnd(node); i < end; ++i) {
+                final int child = graph.child(i);
+                if (isBlocked(graph, child, blockedNodes)) {
+                    continue;
+                }
+                if (graph.isCurve(child) == startNodeIsCurve) {
+                    if (!distances.contains(child)) {
+                        distances.put(child, newDistance);
+                        distances.addLast(child);
                     }
+                } else if (!distances.contains(child) || (allowNonOptimalLastMove && newDistance > distances.get(child))) {
+                    distances.put(child, newDistance);
+                    nonMatchingTypeDistances.put(graph.node(child), newDistance);
                 }
-            });
+            }
         }
         return nonMatchingTypeDistances;
     }
+
+    // Same as the minimum of findMinDistancesToNextAreaStart(startNode, false, blockedNodes), or -1 if there is none.
+    private static int findMinDistanceToNextAreaStart(TrackGraph graph, int startNode, Set<Node> blockedNodes) {
+        final boolean startNodeIsCurve = graph.isCurve(startNode);
+        final TrackGraph.Scratch distances = graph.scratch();
+        distances.clear();
+        distances.put(startNode, 0);
+        distances.addLast(startNode);
+        int minDistance = -1;
+        while (!distances.isEmpty()) {
+            final int node = distances.removeFirst();
+            final int newDistance = distances.get(node) + 1;
+            for (int i = graph.childStart(node), end = graph.childEnd(node); i < end; ++i) {
+                final int child = graph.child(i);
+                if (distances.contains(child) || isBlocked(graph, child, blockedNodes)) {
+                    continue;
+                }
+                distances.put(child, newDistance);
+                if (graph.isCurve(child) == startNodeIsCurve) {
+                    distances.addLast(child);
+                } else if (minDistance == -1 || newDistance < minDistance) {
+                    minDistance = newDistance;
+                }
+            }
+        }
+        return minDistance;
+    }
+
+    private static boolean isBlocked(TrackGraph graph, int node, Set<Node> blockedNodes) {
+        return !blockedNodes.isEmpty() && blockedNodes.contains(graph.node(node));
+    }
+
+    private static TrackGraph getGraph(Node node) {
+        final TrackGraph graph = node.getGraph();
+        if (graph == null) {
+            throw new RuntimeException("Node " + node.getId() + " does not belong to a finalized track");
+        }
+        return graph;
+    }
 }
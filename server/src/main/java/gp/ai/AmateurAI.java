@@ -1,10 +1,10 @@
 package gp.ai;
 
-import gp.Main;
 import gp.model.*;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class AmateurAI extends BaseAI {
@@ -37,17 +37,13 @@ public class AmateurAI extends BaseAI {
         return Pair.of(min, max);
     }
 
-    private static int getNextGear(int gearMask) {
-        double digitCount = ((int) Math.log10(gearMask)) + 1;
-        int nextGear = gearMask;
-        while (--digitCount > 1) {
-            nextGear = nextGear / 10;
-        }
-        return nextGear % 10;
+    @Override
+    public gp.model.Gear selectGear(GameState gameState) {
+        return selectGear(gameState, Deadline.NONE);
     }
 
     @Override
-    public gp.model.Gear selectGear(GameState gameState) {
+    public gp.model.Gear selectGear(GameState gameState, Deadline deadline) {
         playerMap = AIUtil.buildPlayerMap(gameState);
         player = playerMap.get(playerId);
         if (player == null) {
@@ -78,25 +74,9 @@ public class AmateurAI extends BaseAI {
                 .map(p -> nodes.get(p.getNodeId()))
                 .collect(Collectors.toSet());
         final Set<Node> pitNodes = nodes.stream().filter(Node::isPit).collect(Collectors.toSet());
-        gearMaskToScores.clear();
-        gearMaskToMaxScore.clear();
-        gearMaskToMinScore.clear();
         final GearEvaluator evaluator = new GearEvaluator(location, blockedNodes, pitNodes, player.getGear(), player.getStops(), player.getHitpoints(), player.getLapsToGo());
-        for (int i = 0; i < 100; ++i) {
-            evaluator.randomWalk();
-        }
-        final Map<Integer, Integer> gearToMaxScore = new HashMap<>();
-        gearMaskToMaxScore.forEach((gearMask, score) -> {
-            final int nextGear = getNextGear(gearMask);
-            final Integer oldScore = gearToMaxScore.get(nextGear);
-            if (oldScore == null || score > oldScore) gearToMaxScore.put(nextGear, score);
-        });
-        final int riskGear = gearToMaxScore.entrySet().stream().max((e1, e2) -> e1.getValue() - e2.getValue()).map(e -> e.getKey()).orElse(-1);
-        final int avgGear = gearMaskToScores.entrySet().stream().max(Comparator.comparingInt(e -> e.getValue().stream().mapToInt(Integer::intValue).sum() / e.getValue().size())).map(e -> e.getKey()).map(AmateurAI::getNextGear).orElse(-1);
-        final int safeGear = gearMaskToMinScore.entrySet().stream().max((e1, e2) -> e1.getValue() - e2.getValue()).map(e -> e.getKey()).map(AmateurAI::getNextGear).orElse(-1);
-        //System.out.println("Risk gear: " + riskGear);
-        //System.out.println("Safe gear: " + safeGear);
-        //System.out.println("Best gear: " + avgGear);
+        final int selectedGear = evaluator.selectGear(deadline.isTimed() ? deadline.limit(SEARCH_BUDGET_NANOS) : deadline);
+        if (debug) System.out.println("Selected gear: " + selectedGear);
 
         if (location.hasGarage()) {
             final Tires chosenTires = getBestTires(tires, player.getLapsToGo(), true);
@@ -105,7 +85,10 @@ public class AmateurAI extends BaseAI {
             }
         }
 
-        if (true) return new gp.model.Gear().gear(riskGear).tires(tires);
+        if (true) {
+            gear = selectedGear;
+            return new gp.model.Gear().gear(gear).tires(tires);
+        }
         // Find gear sequences for:
         // - max of mins (safe option)
         // - min of maxs (risky option)
@@ -176,14 +159,16 @@ public class AmateurAI extends BaseAI {
         return new gp.model.Gear().gear(gear).tires(tires);
     }
 
-    private Map<Integer, List<Integer>> gearMaskToScores = new HashMap<>();
-    private Map<Integer, Integer> gearMaskToMaxScore = new HashMap<>();
-    private Map<Integer, Integer> gearMaskToMinScore = new HashMap<>();
+    // Gear selection searches deeper while time allows, well within the default gear timeout of the engine.
+    // Without a timed deadline the search always completes, so that the selected gear does not depend on the load.
+    private static final long SEARCH_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private final ScoreCache scoreCache = new ScoreCache();
 
     class GearEvaluator {
         private final int turns;
         private final int gear;
         private final int gearMask;
+        private final int distance;
         private final int hitpoints;
         private final int minGear;
         private final int maxGear;
@@ -224,6 +209,7 @@ public class AmateurAI extends BaseAI {
             turns = 0;
             this.gear = gear;
             gearMask = gear;
+            distance = 0;
             this.hitpoints = hitpoints;
             inPits = location.isPit();
             minGear = Math.max(1, gear - Math.min(4, hitpoints));
@@ -247,8 +233,8 @@ public class AmateurAI extends BaseAI {
                 garageMax = -1;
             }
             final int maxGear = Math.min(inPits ? 4 : 6, gear + 1);
-            if (lapsToGo > 0 && minDistanceToPits < movePermit && minDistanceToPits < Gear.getMin(maxGear) && hitpoints < Main.random.nextInt(maxHitpoints) && minGear <= 4) {
-                System.out.println("Decided to pit");
+            if (lapsToGo > 0 && minDistanceToPits < movePermit && minDistanceToPits < Gear.getMin(maxGear) && 2 * hitpoints < maxHitpoints && minGear <= 4) {
+                if (debug) System.out.println("Decided to pit");
                 this.maxGear = 4;
                 searchDepth = 1;
             } else {
@@ -264,6 +250,7 @@ public class AmateurAI extends BaseAI {
             turns = old.turns + 1;
             this.gear = gear;
             gearMask = 10 * old.gearMask + gear;
+            distance = old.distance + moveSteps;
             minDistanceToNextCurve = old.minDistanceToNextCurveWithoutOthers - moveSteps;
             final int damage = Math.max(0, moveSteps - ((old.stopsToDo > 0 && minDistanceToNextCurve >= 1) ? old.movePermit : old.movePermitToNextCornerWithoutOthers)) + Math.max(0, old.gear - gear - 1);
             minDistanceToNextCurveWithoutOthers = old.minDistanceToNextCurveWithoutOthers - moveSteps;
@@ -287,64 +274,54 @@ public class AmateurAI extends BaseAI {
             return minDistanceToNextCurveWithoutOthers > 0 || stopsToDo > 0;
         }
 
-        private void randomWalk() {
-            if (!canEvaluateNext() || gearMask > Math.pow(10, searchDepth)) {
-                final int score = getScore();
-                gearMaskToScores.computeIfAbsent(gearMask, gm -> new ArrayList<>()).add(score);
-                final Integer min = gearMaskToMinScore.get(gearMask);
-                final Integer max = gearMaskToMaxScore.get(gearMask);
-                if (min == null || score < min) gearMaskToMinScore.put(gearMask, score);
-                if (max == null || score > max) gearMaskToMaxScore.put(gearMask, score);
-                //System.out.println(toString());
-            } else {
-                int i = minGear;
-                if (minDistanceToNextCurve > 0 && stopsToDo <= 0) {
-                    while (Gear.getMax(i) < minDistanceToNextCurve) {
-                        if (i == maxGear) {
-                            break;
-                        }
-                        ++i;
+        /**
+         * Returns the gear with the best expected score over the dice outcomes of the following turns.
+         * Searches one turn deeper at a time until the search depth or the deadline is reached, and
+         * returns the result of the deepest completed search.
+         */
+        private int selectGear(Deadline deadline) {
+            scoreCache.clear();
+            int bestGear = gear;
+            for (int depth = 1; depth <= searchDepth; ++depth) {
+                final ExpectimaxSearch search = new ExpectimaxSearch(depth, deadline);
+                int bestGearAtDepth = gear;
+                double bestScore = Double.NEGATIVE_INFINITY;
+                for (int nextGear : getGearCandidates()) {
+                    final double score = search.getExpectedScore(this, nextGear);
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestGearAtDepth = nextGear;
                     }
                 }
-                boolean canBreak = false;
-                while (i <= maxGear) {
-                    if (!AIUtil.validateGear(hitpoints, gear, i, inPits)) {
-                        ++i;
-                        continue;
-                    }
-                    if (canBreak) {
-                        if (movePermitToNextCornerWithoutOthers < Gear.getMin(i)) break; // maybe something else in final corner(s)?
-                        if (stopsToDo > 0 && !enteredNextCurve && movePermit < Gear.getMin(i)) break;
-                    }
-                    final int[] distribution = Gear.getDistribution(i);
-                    final int roll = distribution[Main.random.nextInt(distribution.length)];
-                    final GearEvaluator next = new GearEvaluator(this, i, roll, inPits);
-                    next.randomWalk();
-                    canBreak = true;
-                    ++i;
+                if (search.timedOut) {
+                    break;
                 }
+                bestGear = bestGearAtDepth;
             }
+            return bestGear;
         }
 
-        private List<GearEvaluator> nextTurn() {
-            final List<GearEvaluator> candidates = new ArrayList<>();
-            if (canEvaluateNext()) {
-                int i = minGear;
-                if (minDistanceToNextCurve > 0 && stopsToDo <= 0 && Gear.getMax(maxGear) <= minDistanceToNextCurve) {
-                    i = maxGear;
-                }
-                while (i <= maxGear) {
-                    if (!AIUtil.validateGear(hitpoints, gear, i, inPits)) continue;
-                    final int[] distribution = Gear.getDistribution(i);
-                    for (int moveSteps : distribution) {
-                        final GearEvaluator next = new GearEvaluator(this, i, moveSteps, false);
-                        if (next.hitpoints <= 0) continue;
-                        candidates.add(next);
-                    }
+        // Gears worth evaluating for the next turn, higher gears are skipped if they would exceed the move permits
+        private int[] getGearCandidates() {
+            final int[] candidates = new int[6];
+            int count = 0;
+            int i = minGear;
+            if (minDistanceToNextCurve > 0 && stopsToDo <= 0) {
+                while (i < maxGear && Gear.getMax(i) < minDistanceToNextCurve) {
                     ++i;
                 }
             }
-            return candidates;
+            for (; i <= maxGear; ++i) {
+                if (!AIUtil.validateGear(hitpoints, gear, i, inPits)) {
+                    continue;
+                }
+                if (count > 0) {
+                    if (movePermitToNextCornerWithoutOthers < Gear.getMin(i)) break; // maybe something else in final corner(s)?
+                    if (stopsToDo > 0 && !enteredNextCurve && movePermit < Gear.getMin(i)) break;
+                }
+                candidates[count++] = i;
+            }
+            return Arrays.copyOf(candidates, count);
         }
 
         private int getScore() {
@@ -362,28 +339,124 @@ public class AmateurAI extends BaseAI {
             }
             return score;
         }
+    }
 
-        private Pair<Integer, Integer> getMinMaxScore(Deque<GearEvaluator> stack) {
-            final GearEvaluator evaluator = stack.getLast();
-            final List<GearEvaluator> nextEvaluators = evaluator.nextTurn();
-            if (nextEvaluators.isEmpty()) {
-                final int score = evaluator.getScore();
-                return Pair.of(score, score);
-            } else {
-                final int maxScore = nextEvaluators.stream().map(nextEvaluator -> {
-                    stack.addLast(nextEvaluator);
-                    final int score = getMinMaxScore(stack).getRight();
-                    stack.removeLast();
-                    return score;
-                }).mapToInt(Integer::intValue).max().orElse(Integer.MIN_VALUE);
-                final int minScore = nextEvaluators.stream().map(nextEvaluator -> {
-                    stack.addLast(nextEvaluator);
-                    final int score = getMinMaxScore(stack).getLeft();
-                    stack.removeLast();
-                    return score;
-                }).mapToInt(Integer::intValue).min().orElse(Integer.MAX_VALUE);
-                return Pair.of(minScore, maxScore);
+    /**
+     * Expectimax over gear sequences: the best gear is selected on every turn, and the score of a gear
+     * is the average over its dice outcomes. Scores are cached, so that transpositions (e.g. rolls
+     * 4 + 6 and 6 + 4 with the same gears) are evaluated only once.
+     */
+    private final class ExpectimaxSearch {
+        private final int depth;
+        private final Deadline deadline;
+        private int evaluations;
+        private boolean timedOut;
+
+        private ExpectimaxSearch(int depth, Deadline deadline) {
+            this.depth = depth;
+            this.deadline = deadline;
+        }
+
+        private double getExpectedScore(GearEvaluator evaluator, int nextGear) {
+            final int[] distribution = Gear.getDistribution(nextGear);
+            double sum = 0;
+            for (int roll : distribution) {
+                sum += getScore(new GearEvaluator(evaluator, nextGear, roll, evaluator.inPits));
+            }
+            return sum / distribution.length;
+        }
+
+        private double getScore(GearEvaluator evaluator) {
+            final int remainingDepth = depth - evaluator.turns;
+            if (remainingDepth <= 0 || evaluator.hitpoints <= 0 || !evaluator.canEvaluateNext()) {
+                return evaluator.getScore();
+            }
+            final long key = ScoreCache.key(evaluator.distance, evaluator.gear, evaluator.hitpoints, evaluator.stopsToDo, evaluator.turns, remainingDepth);
+            final int index = scoreCache.indexOf(key);
+            if (index >= 0) {
+                return scoreCache.get(index);
+            }
+            if ((++evaluations & 0x3FF) == 0 && deadline.isExpired()) {
+                timedOut = true;
+            }
+            if (timedOut) {
+                return 0;
+            }
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int nextGear : evaluator.getGearCandidates()) {
+                bestScore = Math.max(bestScore, getExpectedScore(evaluator, nextGear));
+            }
+            if (bestScore == Double.NEGATIVE_INFINITY) {
+                bestScore = evaluator.getScore();
+            }
+            if (!timedOut) {
+                scoreCache.put(key, bestScore);
+            }
+            return bestScore;
+        }
+    }
+
+    /**
+     * Open addressing map from packed evaluator states to expected scores.
+     */
+    private static final class ScoreCache {
+        private long[] keys = new long[1024];
+        private double[] values = new double[1024];
+        private int size;
+
+        // Distance moved, gear, hitpoints, stops to do, turns and remaining search depth identify the evaluator state.
+        // Keys are never 0, because remaining depth is positive.
+        private static long key(int distance, int gear, int hitpoints, int stopsToDo, int turns, int remainingDepth) {
+            return ((long) (distance & 0xFFFF) << 48)
+                    | ((long) (hitpoints & 0xFFFF) << 32)
+                    | ((long) (stopsToDo & 0xFFFF) << 16)
+                    | (gear << 12)
+                    | (turns << 6)
+                    | remainingDepth;
+        }
+
+        private void clear() {
+            Arrays.fill(keys, 0);
+            size = 0;
+        }
+
+        private int slot(long key) {
+            int i = Long.hashCode(key * 0x9E3779B97F4A7C15L) & (keys.length - 1);
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & (keys.length - 1);
+            }
+            return i;
+        }
+
+        private int indexOf(long key) {
+            final int i = slot(key);
+            return keys[i] == key ? i : -1;
+        }
+
+        private double get(int index) {
+            return values[index];
+        }
+
+        private void put(long key, double value) {
+            if (2 * (size + 1) > keys.length) {
+                final long[] oldKeys = keys;
+                final double[] oldValues = values;
+                keys = new long[oldKeys.length * 2];
+                values = new double[oldKeys.length * 2];
+                for (int i = 0; i < oldKeys.length; ++i) {
+                    if (oldKeys[i] != 0) {
+                        final int j = slot(oldKeys[i]);
+                        keys[j] = oldKeys[i];
+                        values[j] = oldValues[i];
+                    }
+                }
+            }
+            final int i = slot(key);
+            if (keys[i] == 0) {
+                ++size;
             }
+            keys[i] = key;
+            values[i] = value;
         }
     }
 
@@ -620,7 +693,7 @@ public class AmateurAI extends BaseAI {
             debug("No candidiates left, using default move");
             return new SelectedIndex().index(0);
         }
-        return new SelectedIndex().index(bestIndices.get(Main.random.nextInt(bestIndices.size())));
+        return new SelectedIndex().index(bestIndices.get(random.nextInt(bestIndices.size())));
     }
 
     public static Map<Node, Integer> getNodeDistances(Node startNode, int maxDistance) {
@@ -1,6 +1,7 @@
 package gp.ai;
 
 import gp.Main;
+import gp.RaceEngine;
 import gp.model.*;
 
 import java.util.*;
@@ -18,12 +19,18 @@ public abstract class BaseAI implements AI {
     List<Weather> weatherForecast;
     private int weatherIndex;
     int totalLaps;
+    Random random = RaceEngine.random;
 
     BaseAI(TrackData data) {
         this.data = data;
         nodes = data.getNodes();
     }
 
+    // Batch simulations give each AI its own seeded generator for reproducible and uncontended races.
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
     // This is called if AI takes over of a player after selecting a gear but before selecting where to move.
     public void init(GameState gameState, int gear, Tires tires) {
         selectGear(gameState);
@@ -76,15 +83,15 @@ public abstract class BaseAI implements AI {
             }
         }
         if (current.getType() == Tires.Type.WET) {
-            if (Main.random.nextInt(2) == 0) return new Tires(Tires.Type.SOFT);
+            if (random.nextInt(2) == 0) return new Tires(Tires.Type.SOFT);
             else return new Tires(Tires.Type.HARD);
         }
         if (current.getType() == Tires.Type.SOFT && current.getAge() > 0) {
-            if (Main.random.nextInt(2) == 0) return new Tires(Tires.Type.SOFT);
+            if (random.nextInt(2) == 0) return new Tires(Tires.Type.SOFT);
             else return new Tires(Tires.Type.HARD);
         }
         if (free) {
-            if (Main.random.nextInt(2) == 0) return new Tires(Tires.Type.SOFT);
+            if (random.nextInt(2) == 0) return new Tires(Tires.Type.SOFT);
             else return new Tires(Tires.Type.HARD);
         }
         return current;
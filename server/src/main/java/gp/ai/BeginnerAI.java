@@ -2,7 +2,6 @@ package gp.ai;
 
 import java.util.*;
 
-import gp.Main;
 import gp.model.*;
 
 public class BeginnerAI extends BaseAI {
@@ -444,7 +443,7 @@ public class BeginnerAI extends BaseAI {
         if (bestIndices.isEmpty()) {
             return new SelectedIndex().index(0);
         }
-        return new SelectedIndex().index(bestIndices.get(Main.random.nextInt(bestIndices.size())));
+        return new SelectedIndex().index(bestIndices.get(random.nextInt(bestIndices.size())));
     }
 
     public static Map<Node, Integer> getNodeDistances(Node startNode, int maxDistance) {
@@ -0,0 +1,280 @@
+package gp.ai;
+
+import gp.Main;
+import gp.MapEditor;
+import gp.model.Weather;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Compiled form of a track file. Contains the finalized nodes with their edges and distances, the
+ * starting grid and the collision map in flat arrays, so that loading a track does not need to
+ * parse the track file, compute distances or build the collision map. Compiled tracks are stored
+ * by the hash of the track file, so a track is compiled again when its file changes.
+ *
+ * Edges and collisions are stored in the iteration order of the original sets, and added back in
+ * the same order, so that searches visit the nodes in the same order as with a freshly built track.
+ *
+ * The hash of the latest compiled version of each track is kept in an index, so that the compiled
+ * track is removed when the track file changes and the track is compiled again.
+ */
+final class CompiledTrack {
+    private static final File directory = TrackData.cacheDirectory;
+    private static final File indexFile = new File(directory, "compiled.index");
+    private static final int MAGIC = 0x47504354;
+    private static final int VERSION = 1;
+    private static final int FINISH = 1;
+    private static final int GARAGE = 2;
+    private static final int COLLISIONS = 4;
+
+    private CompiledTrack() {
+    }
+
+    private static File getFile(String sourceHash) {
+        return new File(directory, sourceHash + ".compiled");
+    }
+
+    /**
+     * Returns the compiled track for the track file with the given hash, or null if it has not
+     * been compiled yet.
+     */
+    static TrackData load(String trackId, boolean external, String sourceHash) {
+        final File file = getFile(sourceHash);
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), trackId, external, sourceHash);
+        } catch (IOException | RuntimeException e) {
+            Main.log.log(Level.WARNING, "Removing unreadable compiled track " + file, e);
+        }
+        if (!file.delete()) {
+            Main.log.warning("Unable to remove " + file);
+        }
+        return null;
+    }
+
+    private static TrackData read(ByteBuffer buffer, String trackId, boolean external, String sourceHash) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !sourceHash.equals(readString(buffer))) {
+            throw new IOException("Compiled track does not match the track file");
+        }
+        final String imageFile = readString(buffer);
+        final MapEditor.Corner infoBoxCorner = MapEditor.Corner.values()[buffer.getInt()];
+        final Weather.Params params = new Weather.Params();
+        params.rainProbability = buffer.getInt();
+        params.shortestPeriod = buffer.getInt();
+
+        final int nodeCount = buffer.getInt();
+        final byte[] types = new byte[nodeCount];
+        buffer.get(types);
+        final byte[] flags = new byte[nodeCount];
+        buffer.get(flags);
+        final int[] x = readInts(buffer, nodeCount);
+        final int[] y = readInts(buffer, nodeCount);
+        final double[] distances = readDoubles(buffer, nodeCount);
+        final double[] gridAngles = readDoubles(buffer, nodeCount);
+        final int[] stepsToFinishLine = readInts(buffer, nodeCount);
+        final int[] areaIndices = readInts(buffer, nodeCount);
+        final int[] childOffsets = readInts(buffer, nodeCount + 1);
+        final int[] children = readInts(buffer, childOffsets[nodeCount]);
+        final int[] collisionOffsets = readInts(buffer, nodeCount + 1);
+        final int[] collisions = readInts(buffer, collisionOffsets[nodeCount]);
+        final int[] grid = readInts(buffer, buffer.getInt());
+
+        final List<Node> nodes = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; ++i) {
+            final Node node = new Node(i, NodeType.values()[types[i]]);
+            node.setFinish((flags[i] & FINISH) != 0);
+            node.setGarage((flags[i] & GARAGE) != 0);
+            node.setLocation(new Point(x[i], y[i]));
+            node.setDistance(distances[i]);
+            node.setGridAngle(gridAngles[i]);
+            node.setStepsToFinishLine(stepsToFinishLine[i]);
+            node.setAreaIndex(areaIndices[i]);
+            nodes.add(node);
+        }
+        final Map<Node, Set<Node>> collisionMap = new HashMap<>();
+        for (int i = 0; i < nodeCount; ++i) {
+            final Node node = nodes.get(i);
+            for (int c = childOffsets[i]; c < childOffsets[i + 1]; ++c) {
+                node.addChild(nodes.get(children[c]));
+            }
+            if ((flags[i] & COLLISIONS) != 0) {
+                final Set<Node> collidingNodes = new HashSet<>();
+                for (int c = collisionOffsets[i]; c < collisionOffsets[i + 1]; ++c) {
+                    collidingNodes.add(nodes.get(collisions[c]));
+                }
+                collisionMap.put(node, collidingNodes);
+            }
+        }
+        final List<Node> startingGrid = new ArrayList<>(grid.length);
+        for (int id : grid) {
+            startingGrid.add(nodes.get(id));
+        }
+        return new TrackData(trackId, external, nodes, startingGrid, collisionMap, imageFile, infoBoxCorner, params);
+    }
+
+    /**
+     * Stores the compiled form of the track data which was built from the track file with the given hash.
+     */
+    static void store(String sourceHash, TrackData data, List<Node> startingGrid, String imageFile, Weather.Params params) {
+        final List<Node> nodes = data.getNodes();
+        final int nodeCount = nodes.size();
+        final Map<Node, Set<Node>> collisionMap = data.getCollisionMap();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, sourceHash);
+            writeString(out, imageFile);
+            out.writeInt(data.getInfoBoxCorner().ordinal());
+            out.writeInt(params.rainProbability);
+            out.writeInt(params.shortestPeriod);
+
+            out.writeInt(nodeCount);
+            for (Node node : nodes) {
+                out.writeByte(node.getType().ordinal());
+            }
+            for (Node node : nodes) {
+                out.writeByte((node.hasFinish() ? FINISH : 0) | (node.hasGarage() ? GARAGE : 0) | (collisionMap.containsKey(node) ? COLLISIONS : 0));
+            }
+            for (Node node : nodes) {
+                out.writeInt(node.getLocation().x);
+            }
+            for (Node node : nodes) {
+                out.writeInt(node.getLocation().y);
+            }
+            for (Node node : nodes) {
+                out.writeDouble(node.getDistance());
+            }
+            for (Node node : nodes) {
+                out.writeDouble(node.getGridAngle());
+            }
+            for (Node node : nodes) {
+                out.writeInt(node.getStepsToFinishLine());
+            }
+            for (Node node : nodes) {
+                out.writeInt(node.getAreaIndex());
+            }
+            final List<Integer> children = new ArrayList<>();
+            for (Node node : nodes) {
+                out.writeInt(children.size());
+                node.forEachChild(child -> children.add(child.getId()));
+            }
+            out.writeInt(children.size());
+            for (int child : children) {
+                out.writeInt(child);
+            }
+            final List<Integer> collisions = new ArrayList<>();
+            for (Node node : nodes) {
+                out.writeInt(collisions.size());
+                collisionMap.getOrDefault(node, Collections.emptySet()).forEach(n -> collisions.add(n.getId()));
+            }
+            out.writeInt(collisions.size());
+            for (int collision : collisions) {
+                out.writeInt(collision);
+            }
+            out.writeInt(startingGrid.size());
+            for (Node node : startingGrid) {
+                out.writeInt(node.getId());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        final File file = getFile(sourceHash);
+        try {
+            Files.createDirectories(directory.toPath());
+            // Tracks may be compiled in parallel
+            final Path tmp = Files.createTempFile(directory.toPath(), sourceHash, ".tmp");
+            Files.write(tmp, bytes.toByteArray());
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Track is compiled again next time
+            Main.log.log(Level.WARNING, "Unable to store compiled track " + file, e);
+            return;
+        }
+        removeSuperseded(data.isExternal() ? data.getTrackId() : "/" + data.getTrackId(), sourceHash);
+    }
+
+    /**
+     * Records the hash of the latest compiled version of the track, and removes the previous
+     * version unless another track has the same track file.
+     */
+    private static synchronized void removeSuperseded(String trackKey, String sourceHash) {
+        final Properties index = new Properties();
+        if (indexFile.exists()) {
+            try (InputStream in = Files.newInputStream(indexFile.toPath())) {
+                index.load(in);
+            } catch (IOException e) {
+                Main.log.log(Level.WARNING, "Unable to read " + indexFile, e);
+            }
+        }
+        final Object previousHash = index.setProperty(trackKey, sourceHash);
+        try {
+            final Path tmp = Files.createTempFile(directory.toPath(), "compiled", ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                index.store(out, null);
+            }
+            Files.move(tmp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Main.log.log(Level.WARNING, "Unable to write " + indexFile, e);
+            return;
+        }
+        if (previousHash != null && !previousHash.equals(sourceHash) && !index.containsValue(previousHash)) {
+            final File previous = getFile((String) previousHash);
+            if (previous.exists() && !previous.delete()) {
+                Main.log.warning("Unable to remove " + previous);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        final int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int count) {
+        final double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+        return values;
+    }
+}
@@ -0,0 +1,50 @@
+package gp.ai;
+
+/**
+ * Time by which an AI should answer, and a token with which the game server cancels a request
+ * which is no longer waited for. AIs which search for better answers while time allows should
+ * check isExpired() now and then, and return the best answer found so far when it expires.
+ */
+public final class Deadline {
+    public static final Deadline NONE = new Deadline(null, 0, false);
+
+    private final Deadline parent;
+    private final long nanoTime;
+    private final boolean timed;
+    private volatile boolean cancelled;
+
+    private Deadline(Deadline parent, long nanoTime, boolean timed) {
+        this.parent = parent;
+        this.nanoTime = nanoTime;
+        this.timed = timed;
+    }
+
+    public static Deadline after(long millis) {
+        return new Deadline(null, System.nanoTime() + millis * 1000000, true);
+    }
+
+    /**
+     * Returns a deadline which expires after the given time at the latest, or when this one expires.
+     */
+    public Deadline limit(long nanos) {
+        return new Deadline(this, System.nanoTime() + nanos, true);
+    }
+
+    /**
+     * Returns true if the deadline expires by time, and not only when it is cancelled.
+     */
+    public boolean isTimed() {
+        return timed || (parent != null && parent.isTimed());
+    }
+
+    public boolean isExpired() {
+        if (cancelled || (parent != null && parent.isExpired())) {
+            return true;
+        }
+        return timed && System.nanoTime() - nanoTime > 0;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+}
@@ -3,7 +3,6 @@ package gp.ai;
 import java.util.*;
 import java.util.logging.Level;
 
-import gp.Main;
 import gp.model.*;
 
 public class ExampleAI extends BaseAI {
@@ -49,6 +48,6 @@ public class ExampleAI extends BaseAI {
             // Flaw in this AI, just select something valid
             return new SelectedIndex().index(0);
         }
-        return new SelectedIndex().index(bestTargets.get(Main.random.nextInt(bestTargets.size())));
+        return new SelectedIndex().index(bestTargets.get(random.nextInt(bestTargets.size())));
     }
 }
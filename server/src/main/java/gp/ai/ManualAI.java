@@ -44,6 +44,11 @@ public class ManualAI extends BaseAI {
 
     @Override
     public Gear selectGear(GameState gameState) {
+        return selectGear(gameState, Deadline.NONE);
+    }
+
+    @Override
+    public Gear selectGear(GameState gameState, Deadline deadline) {
         final Set<Node> blockedNodes = new HashSet<>();
         int stopCount = 0;
         for (PlayerState playerState : gameState.getPlayers()) {
@@ -166,7 +171,7 @@ public class ManualAI extends BaseAI {
         };
         frame.addKeyListener(keyListener);
         frame.requestFocus();
-        while (!interrupted) {
+        while (!interrupted && !deadline.isExpired()) {
             try {
                 Thread.sleep(listenerDelay);
             } catch (InterruptedException e) {
@@ -181,11 +186,20 @@ public class ManualAI extends BaseAI {
                 return new Gear().gear(newGear).tires(tires);
             }
         }
+        // Selections made after the deadline must not be used for the next request
+        frame.removeKeyListener(keyListener);
+        game.actionMenu.removeAll();
+        game.drivingAids.removeAll();
         return new Gear().gear(gear).tires(tires);
     }
 
     @Override
     public SelectedIndex selectMove(Moves allMoves) {
+        return selectMove(allMoves, Deadline.NONE);
+    }
+
+    @Override
+    public SelectedIndex selectMove(Moves allMoves, Deadline deadline) {
         if (automaticMove) {
             automaticMove = false;
             return ai.selectMove(allMoves);
@@ -281,7 +295,7 @@ public class ManualAI extends BaseAI {
         };
         game.addMouseListener(mouseListener);
         game.addMouseMotionListener(mouseListener);
-        while (!interrupted) {
+        while (!interrupted && !deadline.isExpired()) {
             try {
                 Thread.sleep(listenerDelay);
             } catch (InterruptedException e) {
@@ -298,6 +312,12 @@ public class ManualAI extends BaseAI {
                 return new SelectedIndex().index(index);
             }
         }
+        game.highlightNodes(null);
+        game.setMouseOverHighlightNodeIndex(-1);
+        frame.removeKeyListener(keyListener);
+        game.removeMouseListener(mouseListener);
+        game.removeMouseMotionListener(mouseListener);
+        game.actionMenu.removeAll();
         return new SelectedIndex().index(0);
     }
 
@@ -308,11 +328,9 @@ public class ManualAI extends BaseAI {
             final FinalStandings standings = (FinalStandings) notification;
             if (!initialStandingsReceived) {
                 profile.standingsReceived(standings.getStats(), data.getTrackId(), standings.isSingleRace(), weatherForecast != null);
-                profile.getManager().saveProfiles();
                 initialStandingsReceived = true;
             } else {
                 profile.standingsReceived(standings.getStats(), null, standings.isSingleRace(), weatherForecast != null);
-                profile.getManager().saveProfiles();
             }
         }
         ai.notify(notification);
@@ -22,6 +22,8 @@ public final class Node implements Serializable, Comparable<Node> {
     private transient int stepsToFinishLine = -1;
     private transient int areaIndex;
     private transient double gridAngle = Double.NaN; // Client does not need this
+    private transient TrackGraph graph;
+    private transient int minDistanceToNextArea; // memoized when track is finalized, -1 if not found
     private Point point;
 
     public Node(int id, NodeType type) {
@@ -62,6 +64,11 @@ public final class Node implements Serializable, Comparable<Node> {
         areaIndex = index;
     }
 
+    void setGraph(TrackGraph graph) {
+        this.graph = graph;
+        minDistanceToNextArea = findMinDistanceToNextArea();
+    }
+
     public int getId() {
         return id;
     }
@@ -98,6 +105,14 @@ public final class Node implements Serializable, Comparable<Node> {
         return areaIndex;
     }
 
+    /**
+     * Returns the compiled graph of the track this node belongs to, or null if
+     * the node is not part of a finalized TrackData (e.g. in map editor).
+     */
+    public TrackGraph getGraph() {
+        return graph;
+    }
+
     /**
      * Used only in map editor and when loading nodes.
      */
@@ -137,14 +152,22 @@ public final class Node implements Serializable, Comparable<Node> {
      * value, does not take obstacles into account.
      */
     public int getMinDistanceToNextArea() {
+        final int distance = minDistanceToNextArea != 0 ? minDistanceToNextArea : findMinDistanceToNextArea();
+        if (distance < 0) {
+            throw new RuntimeException("Next area not found!");
+        }
+        return distance;
+    }
+
+    private int findMinDistanceToNextArea() {
         final boolean startNodeIsCurve = isCurve();
         final boolean inPits = isPit();
-        final List<Node> work = new ArrayList<>();
+        final Deque<Node> work = new ArrayDeque<>();
         final Map<Node, Integer> visited = new HashMap<>();
-        work.add(this);
+        work.addLast(this);
         visited.put(this, 0);
         while (!work.isEmpty()) {
-            final Node node = work.remove(0);
+            final Node node = work.removeFirst();
             for (Node next : node.nextNodes) {
                 if (next.isPit() && !inPits) {
                     continue;
@@ -153,12 +176,12 @@ public final class Node implements Serializable, Comparable<Node> {
                     return visited.get(node) + 1;
                 }
                 if (!visited.containsKey(next)) {
-                    work.add(next);
+                    work.addLast(next);
                     visited.put(next, visited.get(node) + 1);
                 }
             }
         }
-        throw new RuntimeException("Next area not found!");
+        return -1;
     }
 
     public boolean isCurve() {
@@ -1,7 +1,6 @@
 package gp.ai;
 
 import gp.DamageAndPath;
-import gp.Main;
 import gp.NodeUtil;
 import gp.Player;
 import gp.model.*;
@@ -301,6 +300,11 @@ public class ProAI extends BaseAI {
 
     @Override
     public gp.model.Gear selectGear(GameState gameState) {
+        return selectGear(gameState, Deadline.NONE);
+    }
+
+    @Override
+    public gp.model.Gear selectGear(GameState gameState, Deadline deadline) {
         updatePlayerInfo(gameState);
         if (player.getGear() == 0) {
             final Tires chosenTires = getBestTires(tires, player.getLapsToGo(), true);
@@ -333,52 +337,23 @@ public class ProAI extends BaseAI {
         final int maxGear = Math.min(location.isPit() ? 4 : 6, player.getGear() + 1);
         final Weather weather = getWeather(0);
         final int overshootMultiplier = tires == null ? 1 : tires.getOvershootDamage(weather);
-        final Map<Integer, List<Integer>> gearToScore = new HashMap<>();
+        final List<int[]> gearsAndRolls = new ArrayList<>();
         for (int gear = minGear; gear <= maxGear; ++gear) {
-            final int finalGear = gear;
-            final int[] distribution = Gear.getDistribution(gear);
-            for (int roll : distribution) {
-                final Map<Node, DamageAndPath> res = NodeUtil.findTargetNodes(location, gear, roll, player.getHitpoints(), player.getStops(), player.getLapsToGo(), blockedNodes, player.getLapsToGo() == totalLaps);
-                final Set<Node> slideNodes = new HashSet<>();
-                if (weather == Weather.RAIN) {
-                    final Iterator<Map.Entry<Node, DamageAndPath>> it = res.entrySet().iterator();
-                    while (it.hasNext()) {
-                        final Map.Entry<Node, DamageAndPath> e = it.next();
-                        if (e.getKey().isCurve() || e.getValue().getDamage() > 0) {
-                            slideNodes.add(e.getKey());
-                            it.remove();
-                        }
-                    }
-                }
-                int maxScore = res.entrySet().stream()
-                        .filter(e -> e.getValue().getDamage() * overshootMultiplier < player.getHitpoints())
-                        .map(e -> evaluate(e.getKey(), e.getValue().getDamage() * overshootMultiplier, finalGear))
-                        .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
-                if (tires != null && tires.canUse(weather)) {
-                    final Map<Node, DamageAndPath> resOpt = NodeUtil.findTargetNodes(location, gear, roll + 1, player.getHitpoints(), player.getStops(), player.getLapsToGo(), blockedNodes, player.getLapsToGo() == totalLaps);
-                    final int optMaxScore = resOpt.entrySet().stream()
-                            .filter(e -> e.getValue().getDamage() * overshootMultiplier < player.getHitpoints())
-                            .map(e -> evaluate(e.getKey(), e.getValue().getDamage() * overshootMultiplier, finalGear))
-                            .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
-                    if (optMaxScore > maxScore) {
-                        maxScore = optMaxScore;
-                    }
-                }
-                if (!slideNodes.isEmpty()) {
-                    final int slide = tires != null && tires.getType() == Tires.Type.WET ? 1 : 3;
-                    final Map<Node, DamageAndPath> targets = NodeUtil.findTargetNodes(location, gear, roll + slide, player.getHitpoints(), player.getStops(), player.getLapsToGo(), blockedNodes, player.getLapsToGo() == totalLaps);
-                    final int slideScore = targets.entrySet().stream()
-                            .filter(e -> e.getValue().getPath().stream().anyMatch(slideNodes::contains))
-                            .filter(e -> e.getValue().getDamage() * overshootMultiplier < player.getHitpoints())
-                            .map(e -> evaluate(e.getKey(), e.getValue().getDamage() * overshootMultiplier, finalGear))
-                            .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
-                    if (slideScore > maxScore) {
-                        maxScore = slideScore;
-                    }
-                }
-                gearToScore.computeIfAbsent(gear, g -> new ArrayList<>()).add(maxScore);
+            for (int roll : Gear.getDistribution(gear)) {
+                gearsAndRolls.add(new int[] { gear, roll });
             }
         }
+        // Searches and evaluations of different gears and rolls are independent and only read the track data,
+        // so they run in the pool of the calling thread (common pool or e.g. the pool of a tournament).
+        // Rolls which are not evaluated before the deadline get the lowest score.
+        final int[] maxScores = gearsAndRolls
+                .parallelStream()
+                .mapToInt(gearAndRoll -> deadline.isExpired() ? Scores.MIN : getMaxScore(gearAndRoll[0], gearAndRoll[1], blockedNodes, weather, overshootMultiplier))
+                .toArray();
+        final Map<Integer, List<Integer>> gearToScore = new HashMap<>();
+        for (int i = 0; i < maxScores.length; ++i) {
+            gearToScore.computeIfAbsent(gearsAndRolls.get(i)[0], g -> new ArrayList<>()).add(maxScores[i]);
+        }
         // Safe option: Pick gear with largest worst score.
         // Normal option: Pick gear with largest median scoree.
         // Risky option: Pick gear with largest best score.
@@ -421,7 +396,50 @@ public class ProAI extends BaseAI {
                 bestIndices.add(i);
             }
         }
-        return new SelectedIndex().index(bestIndices.get(Main.random.nextInt(bestIndices.size())));
+        return new SelectedIndex().index(bestIndices.get(random.nextInt(bestIndices.size())));
+    }
+
+    // Returns score of the best target for the given gear and roll, including extra move of tires and sliding in rain
+    private int getMaxScore(int gear, int roll, Set<Node> blockedNodes, Weather weather, int overshootMultiplier) {
+        final Map<Node, DamageAndPath> res = NodeUtil.findTargetNodes(location, gear, roll, player.getHitpoints(), player.getStops(), player.getLapsToGo(), blockedNodes, player.getLapsToGo() == totalLaps);
+        final Set<Node> slideNodes = new HashSet<>();
+        if (weather == Weather.RAIN) {
+            final Iterator<Map.Entry<Node, DamageAndPath>> it = res.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<Node, DamageAndPath> e = it.next();
+                if (e.getKey().isCurve() || e.getValue().getDamage() > 0) {
+                    slideNodes.add(e.getKey());
+                    it.remove();
+                }
+            }
+        }
+        int maxScore = res.entrySet().stream()
+                .filter(e -> e.getValue().getDamage() * overshootMultiplier < player.getHitpoints())
+                .map(e -> evaluate(e.getKey(), e.getValue().getDamage() * overshootMultiplier, gear))
+                .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
+        if (tires != null && tires.canUse(weather)) {
+            final Map<Node, DamageAndPath> resOpt = NodeUtil.findTargetNodes(location, gear, roll + 1, player.getHitpoints(), player.getStops(), player.getLapsToGo(), blockedNodes, player.getLapsToGo() == totalLaps);
+            final int optMaxScore = resOpt.entrySet().stream()
+                    .filter(e -> e.getValue().getDamage() * overshootMultiplier < player.getHitpoints())
+                    .map(e -> evaluate(e.getKey(), e.getValue().getDamage() * overshootMultiplier, gear))
+                    .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
+            if (optMaxScore > maxScore) {
+                maxScore = optMaxScore;
+            }
+        }
+        if (!slideNodes.isEmpty()) {
+            final int slide = tires != null && tires.getType() == Tires.Type.WET ? 1 : 3;
+            final Map<Node, DamageAndPath> targets = NodeUtil.findTargetNodes(location, gear, roll + slide, player.getHitpoints(), player.getStops(), player.getLapsToGo(), blockedNodes, player.getLapsToGo() == totalLaps);
+            final int slideScore = targets.entrySet().stream()
+                    .filter(e -> e.getValue().getPath().stream().anyMatch(slideNodes::contains))
+                    .filter(e -> e.getValue().getDamage() * overshootMultiplier < player.getHitpoints())
+                    .map(e -> evaluate(e.getKey(), e.getValue().getDamage() * overshootMultiplier, gear))
+                    .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
+            if (slideScore > maxScore) {
+                maxScore = slideScore;
+            }
+        }
+        return maxScore;
     }
 
     private void debug(String msg) {
@@ -12,10 +12,14 @@ import org.apache.commons.lang3.tuple.Pair;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.stream.Collectors;
 
 public class TrackData implements Serializable {
+    // Directory of compiled and downloaded tracks and the track catalog, which may be changed with -Dgp.trackcache
+    public static final File cacheDirectory = new File(System.getProperty("gp.trackcache", "trackcache"));
     private final String trackId;
     private final boolean external;
     private final List<Node> nodes;
@@ -26,8 +30,11 @@ public class TrackData implements Serializable {
     public transient final Weather.Params weatherParams;
     private transient List<Node> startingGrid; // client does not need this
     private transient Map<Node, Set<Node>> collisionMap; // client does not need this
+    private transient TrackGraph graph;
+    private transient byte[] bundle; // serialized form, which is sent to clients
+    private transient String bundleHash;
 
-    private TrackData(String trackId, boolean external, List<Node> nodes, List<Node> startingGrid, Map<Node, Set<Node>> collisionMap, String imageFile, MapEditor.Corner infoBoxCorner, Weather.Params params) {
+    TrackData(String trackId, boolean external, List<Node> nodes, List<Node> startingGrid, Map<Node, Set<Node>> collisionMap, String imageFile, MapEditor.Corner infoBoxCorner, Weather.Params params) {
         this.trackId = trackId;
         this.external = external;
         this.nodes = nodes.stream().sorted(Comparator.comparingInt(Node::getId)).collect(Collectors.toList());
@@ -41,6 +48,7 @@ public class TrackData implements Serializable {
             sources.add(node.getId());
             targets.add(child.getId());
         }));
+        graph = new TrackGraph(this.nodes);
         this.startingGrid = startingGrid;
         this.collisionMap = collisionMap;
         imageData = imageFile == null ? null : new ImageData(imageFile, external);
@@ -55,8 +63,13 @@ public class TrackData implements Serializable {
             int dst = targets.get(i);
             nodes.get(src).addChild(nodes.get(dst));
         }
+        graph = new TrackGraph(nodes);
     }
 
+    /**
+     * Loads the track from the given track file. The track is built from the file only when it has
+     * not been compiled before, otherwise the compiled track is loaded.
+     */
     public static TrackData createTrackData(String trackId, boolean external) {
         if (external && !new File(trackId).exists()) {
             return null;
@@ -65,7 +78,13 @@ public class TrackData implements Serializable {
         final Map<Node, Double> attributes = new HashMap<>();
         final Weather.Params params = new Weather.Params();
         try (InputStream is = external ? new FileInputStream(trackId) : Main.class.getResourceAsStream("/" + trackId)) {
-            final Pair<String, MapEditor.Corner> result = MapEditor.loadNodes(is, nodes, attributes, params);
+            final byte[] source = readFully(is);
+            final String sourceHash = hash(source);
+            final TrackData compiled = CompiledTrack.load(trackId, external, sourceHash);
+            if (compiled != null) {
+                return compiled;
+            }
+            final Pair<String, MapEditor.Corner> result = MapEditor.loadNodes(new ByteArrayInputStream(source), nodes, attributes, params);
             if (result == null) {
                 return null;
             }
@@ -83,12 +102,24 @@ public class TrackData implements Serializable {
                 return null;
             }*/
             final Map<Node, Set<Node>> collisionMap = TrackLanes.buildCollisionMap(nodes, laneCount);
-            return new TrackData(trackId, external, nodes, grid, collisionMap, result.getLeft(), result.getRight(), params);
+            final TrackData data = new TrackData(trackId, external, nodes, grid, collisionMap, result.getLeft(), result.getRight(), params);
+            CompiledTrack.store(sourceHash, data, grid, result.getLeft(), params);
+            return data;
         } catch (Exception e) {
             return null;
         }
     }
 
+    private static byte[] readFully(InputStream is) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int count;
+        while ((count = is.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
     private static int processFinishLine(List<Node> nodes, Map<Node, List<Node>> prevNodeMap, Deque<Node> work, Deque<Node> curves) {
         final List<Node> edges = nodes.stream().filter(Node::hasFinish).collect(Collectors.toList());
         final int laneCount = edges.size();
@@ -422,6 +453,10 @@ public class TrackData implements Serializable {
         return nodes;
     }
 
+    public TrackGraph getGraph() {
+        return graph;
+    }
+
     public int getGridMaxSize() {
         return startingGrid.size();
     }
@@ -446,8 +481,54 @@ public class TrackData implements Serializable {
         return infoBoxCorner;
     }
 
+    /**
+     * Returns the serialized track data including the background image. The bundle is created once,
+     * so that the image is not encoded again for each client.
+     */
+    public synchronized byte[] getBundle() throws IOException {
+        if (bundle == null) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(this);
+            }
+            bundle = bytes.toByteArray();
+            bundleHash = hash(bundle);
+        }
+        return bundle;
+    }
+
+    /**
+     * Returns hash of the bundle, which identifies the contents of the track data.
+     */
+    public synchronized String getBundleHash() throws IOException {
+        getBundle();
+        return bundleHash;
+    }
+
+    public static TrackData fromBundle(byte[] bundle) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bundle))) {
+            final TrackData data = (TrackData) ois.readObject();
+            data.bundle = bundle;
+            data.bundleHash = hash(bundle);
+            return data;
+        }
+    }
+
+    public static String hash(byte[] bytes) {
+        try {
+            final StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private static class ImageData implements Serializable {
         private transient BufferedImage image;
+        private transient byte[] png;
         private final transient String imagePath;
         private final transient boolean external;
 
@@ -469,10 +550,22 @@ public class TrackData implements Serializable {
 
         private void writeObject(ObjectOutputStream out) throws IOException {
             out.defaultWriteObject();
-            final BufferedImage image = getImage();
-            if (image != null) {
-                ImageIO.write(image, "png", out); // png is lossless
+            final byte[] png = getPng();
+            if (png != null) {
+                out.write(png);
+            }
+        }
+
+        private synchronized byte[] getPng() throws IOException {
+            if (png == null) {
+                final BufferedImage image = getImage();
+                if (image != null) {
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    ImageIO.write(image, "png", bytes); // png is lossless
+                    png = bytes.toByteArray();
+                }
             }
+            return png;
         }
 
         private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
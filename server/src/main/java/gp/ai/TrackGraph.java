@@ -0,0 +1,272 @@
+package gp.ai;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable, array based view of a finalized track graph. Node identifiers are
+ * used as indices, children of node i are children[childOffsets[i]] ..
+ * children[childOffsets[i + 1] - 1] in the same order as Node.forEachChild
+ * visits them. Searches can use this without boxing or iterator allocation.
+ */
+public final class TrackGraph {
+    private final Node[] nodes;
+    private final int[] childOffsets;
+    private final int[] children;
+    private final byte[] type;
+    private final boolean[] curve;
+    private final boolean[] finish;
+    private final boolean[] garage;
+    private final double[] distance;
+    private final int[] area;
+    private final int areaCount;
+    private final ThreadLocal<Scratch> scratch;
+    private volatile TrackTables tables;
+
+    TrackGraph(List<Node> sortedNodes) {
+        final int size = sortedNodes.size();
+        nodes = new Node[size];
+        childOffsets = new int[size + 1];
+        type = new byte[size];
+        curve = new boolean[size];
+        finish = new boolean[size];
+        garage = new boolean[size];
+        distance = new double[size];
+        int edgeCount = 0;
+        for (int i = 0; i < size; ++i) {
+            final Node node = sortedNodes.get(i);
+            if (node.getId() != i) {
+                throw new RuntimeException("Node identifiers are not contiguous: " + node.getId());
+            }
+            nodes[i] = node;
+            edgeCount += node.childCount(null);
+        }
+        children = new int[edgeCount];
+        int offset = 0;
+        for (int i = 0; i < size; ++i) {
+            final Node node = nodes[i];
+            childOffsets[i] = offset;
+            final int[] next = { offset };
+            node.forEachChild(child -> children[next[0]++] = child.getId());
+            offset = next[0];
+            type[i] = (byte) node.getType().ordinal();
+            curve[i] = node.isCurve();
+            finish[i] = node.hasFinish();
+            garage[i] = node.hasGarage();
+            distance[i] = node.getDistance();
+            node.setGraph(this);
+        }
+        childOffsets[size] = offset;
+        area = new int[size];
+        areaCount = findAreas();
+        scratch = ThreadLocal.withInitial(() -> new Scratch(size, area));
+    }
+
+    // Labels connected components of curve and non-curve nodes, pit lane belongs to the adjacent straights.
+    private int findAreas() {
+        final int size = nodes.length;
+        final int[] parent = new int[size];
+        for (int i = 0; i < size; ++i) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < size; ++i) {
+            for (int c = childOffsets[i]; c < childOffsets[i + 1]; ++c) {
+                final int child = children[c];
+                if (curve[i] == curve[child]) {
+                    parent[findRoot(parent, i)] = findRoot(parent, child);
+                }
+            }
+        }
+        int count = 0;
+        Arrays.fill(area, -1);
+        for (int i = 0; i < size; ++i) {
+            final int root = findRoot(parent, i);
+            if (area[root] < 0) {
+                area[root] = count++;
+            }
+            area[i] = area[root];
+        }
+        return count;
+    }
+
+    private static int findRoot(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    public Node node(int id) {
+        return nodes[id];
+    }
+
+    public int childStart(int id) {
+        return childOffsets[id];
+    }
+
+    public int childEnd(int id) {
+        return childOffsets[id + 1];
+    }
+
+    public int child(int index) {
+        return children[index];
+    }
+
+    public int childCount(int id) {
+        return childOffsets[id + 1] - childOffsets[id];
+    }
+
+    public NodeType type(int id) {
+        return NodeType.values()[type[id]];
+    }
+
+    public boolean isPit(int id) {
+        return type[id] == NodeType.PIT.ordinal();
+    }
+
+    public boolean isCurve(int id) {
+        return curve[id];
+    }
+
+    public boolean hasFinish(int id) {
+        return finish[id];
+    }
+
+    public boolean hasGarage(int id) {
+        return garage[id];
+    }
+
+    public double distance(int id) {
+        return distance[id];
+    }
+
+    public int stopCount(int id) {
+        return nodes[id].getStopCount();
+    }
+
+    /**
+     * Returns index of the curve or straight the node belongs to. Unlike the area index of
+     * Node, this is not ordered along the track.
+     */
+    public int area(int id) {
+        return area[id];
+    }
+
+    public int areaCount() {
+        return areaCount;
+    }
+
+    /**
+     * Returns precomputed search results, which are built on first use. Tracks are loaded
+     * also e.g. for previews, which should not pay for this.
+     */
+    TrackTables tables() {
+        TrackTables result = tables;
+        if (result == null) {
+            synchronized (this) {
+                result = tables;
+                if (result == null) {
+                    tables = result = new TrackTables(this);
+                }
+            }
+        }
+        return result;
+    }
+
+    boolean sameType(int id1, int id2) {
+        return type[id1] == type[id2];
+    }
+
+    /**
+     * Returns search scratch space owned by the calling thread.
+     */
+    Scratch scratch() {
+        return scratch.get();
+    }
+
+    /**
+     * Node to int map and work deque for searches. Values are valid only for
+     * nodes stamped during the current epoch, so clearing is O(1).
+     */
+    static final class Scratch {
+        private final int[] stamp;
+        private final int[] value;
+        private final int[] area;
+        private long[] record;
+        private int recordOffset;
+        private int[] work;
+        private int head;
+        private int tail;
+        private int epoch;
+
+        private Scratch(int size, int[] area) {
+            stamp = new int[size];
+            value = new int[size];
+            this.area = area;
+            work = new int[Math.max(16, size)];
+        }
+
+        void clear() {
+            if (++epoch == 0) {
+                Arrays.fill(stamp, 0);
+                epoch = 1;
+            }
+            clearWork();
+        }
+
+        void clearWork() {
+            head = 0;
+            tail = 0;
+        }
+
+        boolean isEmpty() {
+            return head == tail;
+        }
+
+        void addLast(int id) {
+            if (tail == work.length) {
+                // A node may be added again when its value improves
+                work = Arrays.copyOf(work, work.length * 2);
+            }
+            work[tail++] = id;
+        }
+
+        int removeFirst() {
+            return work[head++];
+        }
+
+        int removeLast() {
+            return work[--tail];
+        }
+
+        boolean contains(int id) {
+            return stamp[id] == epoch;
+        }
+
+        int get(int id) {
+            return value[id];
+        }
+
+        void put(int id, int v) {
+            stamp[id] = epoch;
+            value[id] = v;
+            if (record != null) {
+                record[recordOffset + (area[id] >>> 6)] |= 1L << area[id];
+            }
+        }
+
+        /**
+         * Starts or stops (with null) recording areas of all nodes put to this scratch space
+         * as bits to the given array.
+         */
+        void record(long[] mask, int offset) {
+            record = mask;
+            recordOffset = offset;
+        }
+    }
+}
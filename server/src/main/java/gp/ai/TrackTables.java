@@ -0,0 +1,157 @@
+package gp.ai;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Per-node results of the AIUtil area searches, computed once per track when
+ * an AI first needs them. Each value exists in two variants: with no blocked nodes and with the
+ * pit lane blocked, which are the sets AIs use when ignoring opponents.
+ *
+ * For each node there is also a bit mask of the areas the searches visited.
+ * Lookups with opponents in blocked nodes are valid only if none of them sits
+ * in those areas, otherwise the caller has to search.
+ */
+final class TrackTables {
+    private static final int OPEN = 0;
+    private static final int NO_PITS = 1;
+    private static final int MAX_STOP_COUNT = 3;
+
+    private final TrackGraph graph;
+    private final int pitCount;
+    private final int words;
+    private final int[][] minDistanceToNextCurve = new int[2][];
+    private final int[][] maxDistanceInArea = new int[2][];
+    private final int[][] maxDistanceWithoutDamage = new int[2][];
+    private final long[][] areaMasks = new long[2][];
+    private final int[] minDistanceToAreaExit;
+    private final int[] minDistanceToTakeDamage;
+    private final int[] minDistanceToPits;
+    private final long[] pitAreaMasks;
+    private final int[] stopsRequiredInNextCurve;
+
+    TrackTables(TrackGraph graph) {
+        this.graph = graph;
+        final int size = graph.size();
+        words = (graph.areaCount() + 63) / 64;
+        final Set<Node> pitLane = new HashSet<>();
+        for (int i = 0; i < size; ++i) {
+            if (graph.isPit(i)) {
+                pitLane.add(graph.node(i));
+            }
+        }
+        pitCount = pitLane.size();
+        final TrackGraph.Scratch scratch = graph.scratch();
+        for (int variant = OPEN; variant <= NO_PITS; ++variant) {
+            final Set<Node> blockedNodes = variant == OPEN ? Collections.emptySet() : pitLane;
+            minDistanceToNextCurve[variant] = new int[size];
+            maxDistanceInArea[variant] = new int[size];
+            maxDistanceWithoutDamage[variant] = new int[size];
+            areaMasks[variant] = new long[size * words];
+            for (int i = 0; i < size; ++i) {
+                final Node node = graph.node(i);
+                scratch.record(areaMasks[variant], i * words);
+                minDistanceToNextCurve[variant][i] = AIUtil.searchMinDistanceToNextCurve(node, blockedNodes);
+                // Stop count comparison selects between the two branches
+                maxDistanceInArea[variant][i] = AIUtil.searchMaxDistanceWithoutDamage(node, -1, blockedNodes);
+                maxDistanceWithoutDamage[variant][i] = AIUtil.searchMaxDistanceWithoutDamage(node, MAX_STOP_COUNT, blockedNodes);
+                scratch.record(null, 0);
+            }
+        }
+        minDistanceToAreaExit = new int[size];
+        minDistanceToTakeDamage = new int[size];
+        minDistanceToPits = new int[size];
+        pitAreaMasks = new long[size * words];
+        stopsRequiredInNextCurve = new int[size];
+        for (int i = 0; i < size; ++i) {
+            final Node node = graph.node(i);
+            minDistanceToAreaExit[i] = AIUtil.searchMinDistanceToTakeDamage(node, -1);
+            minDistanceToTakeDamage[i] = AIUtil.searchMinDistanceToTakeDamage(node, MAX_STOP_COUNT);
+            scratch.record(pitAreaMasks, i * words);
+            minDistanceToPits[i] = AIUtil.searchMinDistanceToPits(node, Collections.emptySet());
+            scratch.record(null, 0);
+            stopsRequiredInNextCurve[i] = AIUtil.searchStopsRequiredInNextCurve(node);
+        }
+    }
+
+    /**
+     * Returns the table variant which can be used for the given node and blocked nodes, or -1.
+     */
+    private int getVariant(int id, Set<Node> blockedNodes) {
+        if (blockedNodes.isEmpty()) {
+            return OPEN;
+        }
+        int pits = 0;
+        for (Node node : blockedNodes) {
+            if (node.isPit()) {
+                ++pits;
+            }
+        }
+        final int variant;
+        if (pits == 0) {
+            variant = OPEN;
+        } else if (pits == pitCount) {
+            variant = NO_PITS;
+        } else {
+            return -1;
+        }
+        final long[] mask = areaMasks[variant];
+        for (Node node : blockedNodes) {
+            if (node.getId() == id || (variant == NO_PITS && node.isPit())) {
+                continue;
+            }
+            final int area = graph.area(node.getId());
+            if ((mask[id * words + (area >>> 6)] & (1L << area)) != 0) {
+                return -1;
+            }
+        }
+        return variant;
+    }
+
+    /**
+     * Returns the result of AIUtil.getMinDistanceToNextCurve, or null if a search is needed.
+     */
+    Integer getMinDistanceToNextCurve(int id, Set<Node> blockedNodes) {
+        final int variant = getVariant(id, blockedNodes);
+        return variant < 0 ? null : minDistanceToNextCurve[variant][id];
+    }
+
+    /**
+     * Returns the result of AIUtil.getMaxDistanceWithoutDamage, or null if a search is needed.
+     */
+    Integer getMaxDistanceWithoutDamage(int id, int stopCount, Set<Node> blockedNodes) {
+        final int variant = getVariant(id, blockedNodes);
+        if (variant < 0) {
+            return null;
+        }
+        return graph.stopCount(id) > stopCount ? maxDistanceInArea[variant][id] : maxDistanceWithoutDamage[variant][id];
+    }
+
+    int getMinDistanceToTakeDamage(int id, int stopCount) {
+        return graph.stopCount(id) > stopCount ? minDistanceToAreaExit[id] : minDistanceToTakeDamage[id];
+    }
+
+    /**
+     * Returns the result of AIUtil.getMinDistanceToPits, or null if a search is needed.
+     */
+    Integer getMinDistanceToPits(int id, Set<Node> blockedNodes) {
+        if (blockedNodes.isEmpty()) {
+            return minDistanceToPits[id];
+        }
+        for (Node node : blockedNodes) {
+            if (node.getId() == id) {
+                continue;
+            }
+            final int area = graph.area(node.getId());
+            if ((pitAreaMasks[id * words + (area >>> 6)] & (1L << area)) != 0) {
+                return null;
+            }
+        }
+        return minDistanceToPits[id];
+    }
+
+    int getStopsRequiredInNextCurve(int id) {
+        return stopsRequiredInNextCurve[id];
+    }
+}
@@ -14,6 +14,10 @@ public class GameId implements Serializable {
     return this;
   }
 
+  public String getGameId() {
+    return gameId;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -15,6 +15,10 @@ public class Standings implements Serializable {
         }
     }
 
+    public Standings(String[] playerIds) {
+        this.playerIds = playerIds;
+    }
+
     public String[] getPlayerIds() {
         return playerIds;
     }
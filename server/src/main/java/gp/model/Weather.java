@@ -1,9 +1,8 @@
 package gp.model;
 
-import gp.Main;
-
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 public enum Weather {
@@ -14,14 +13,14 @@ public enum Weather {
         public int shortestPeriod;
     }
 
-    public static List<Weather> forecast(Params params, int turns) {
+    public static List<Weather> forecast(Params params, int turns, Random random) {
         int i = 0;
         int sum = 0;
         int randomMotion[] = new int[turns];
         int min = Integer.MAX_VALUE;
         int max = Integer.MIN_VALUE;
         while (i < turns) {
-            final int next = Main.random.nextInt(3) - 1;
+            final int next = random.nextInt(3) - 1;
             sum += next;
             randomMotion[i++] = sum;
             min = Math.min(min, sum);
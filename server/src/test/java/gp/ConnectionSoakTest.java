@@ -0,0 +1,160 @@
+package gp;
+
+import gp.model.*;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Streams a long race over a loopback connection, and checks that the state which the streams
+ * keep between messages is released at turn boundaries instead of growing with the race.
+ */
+public class ConnectionSoakTest {
+    private static final int laps = 50;
+    private static final int turnsPerLap = 40;
+    private static final int playerCount = 10;
+    private static final long maxRetainedBytes = 256 * 1024;
+    private static final long maxHeapGrowthBytes = 8 * 1024 * 1024;
+    private static final long timeoutMs = 5 * 60 * 1000;
+
+    private Connection server;
+    private Connection client;
+
+    @After
+    public void tearDown() throws IOException {
+        System.clearProperty("gp.serialization");
+        if (server != null) {
+            server.close();
+        }
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    @Test(timeout = timeoutMs)
+    public void binaryConnectionStaysBounded() throws Exception {
+        soak(false);
+    }
+
+    @Test(timeout = timeoutMs)
+    public void serializedConnectionStaysBounded() throws Exception {
+        soak(true);
+    }
+
+    private void soak(boolean serialization) throws Exception {
+        System.setProperty("gp.serialization", Boolean.toString(serialization));
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            final Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort());
+            final Socket socket = serverSocket.accept();
+            final Thread handshake = new Thread(() -> {
+                try {
+                    client = Connection.connect(clientSocket, null);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            handshake.start();
+            server = Connection.accept(socket);
+            handshake.join();
+        }
+        assertTrue(client != null);
+        assertTrue(server.isBinary() != serialization);
+
+        final AtomicReference<Throwable> playerFailure = new AtomicReference<>();
+        final Thread player = new Thread(() -> {
+            try {
+                while (true) {
+                    final Object message = client.receive();
+                    if (message instanceof GameState) {
+                        client.send(new Gear().gear(3));
+                    } else if (message instanceof Moves) {
+                        client.send(new SelectedIndex().index(0));
+                    } else if (message instanceof Kick) {
+                        return;
+                    }
+                }
+            } catch (Throwable e) {
+                playerFailure.set(e);
+                // Server would otherwise wait for the answer forever
+                try {
+                    client.close();
+                } catch (IOException e2) {
+                    e.addSuppressed(e2);
+                }
+            }
+        }, "Soak client");
+        player.setDaemon(true);
+        player.start();
+
+        long baselineHeap = 0;
+        long heapGrowth = 0;
+        long serverRetained = 0;
+        long clientRetained = 0;
+        try {
+            for (int lap = 1; lap <= laps; ++lap) {
+                playLap(lap);
+                if (lap == 10) {
+                    baselineHeap = getUsedHeap();
+                }
+            }
+            heapGrowth = getUsedHeap() - baselineHeap;
+            serverRetained = server.getRetainedBytes();
+            clientRetained = client.getRetainedBytes();
+            server.send(new Kick(""));
+        } catch (IOException e) {
+            if (playerFailure.get() == null) {
+                throw e;
+            }
+        }
+        player.join();
+        if (playerFailure.get() != null) {
+            throw new AssertionError("Soak client failed", playerFailure.get());
+        }
+
+        assertTrue("Server retains " + serverRetained + " bytes", serverRetained < maxRetainedBytes);
+        assertTrue("Client retains " + clientRetained + " bytes", clientRetained < maxRetainedBytes);
+        assertTrue("Heap grew by " + heapGrowth + " bytes", heapGrowth < maxHeapGrowthBytes);
+    }
+
+    private void playLap(int lap) throws IOException, ClassNotFoundException {
+        for (int turn = 0; turn < turnsPerLap; ++turn) {
+            for (int p = 0; p < playerCount; ++p) {
+                final GameState gameState = new GameState().game(new GameId().gameId("soak"));
+                for (int q = 0; q < playerCount; ++q) {
+                    final PlayerState playerState = new PlayerState().playerId("p" + q).gear(4).hitpoints(12).stops(0);
+                    playerState.setNodeId(turn * playerCount + q);
+                    playerState.setLeeway(100000 - turn);
+                    playerState.setLapsToGo(laps - lap);
+                    gameState.addPlayersItem(playerState);
+                }
+                server.send(gameState);
+                while (!(server.receive() instanceof Gear)) ;
+                final List<ValidMove> validMoves = new ArrayList<>();
+                for (int i = 0; i < 20; ++i) {
+                    validMoves.add(new ValidMove().nodeId(i).overshoot(0).braking(0));
+                }
+                server.send(new Moves().game(new GameId().gameId("soak")).moves(validMoves));
+                while (!(server.receive() instanceof SelectedIndex)) ;
+                for (int i = 0; i < playerCount; ++i) {
+                    server.send(new MovementNotification("p" + p, i), i == playerCount - 1);
+                }
+            }
+        }
+    }
+
+    private static long getUsedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        Thread.sleep(100);
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,86 @@
+package gp;
+
+import gp.model.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Decodes corrupted messages, which must fail with an IOException instead of runtime exceptions
+ * or allocations larger than the message.
+ */
+public class WireCodecTest {
+    private static final int rounds = 20000;
+
+    private static byte[] encodeMessages() throws IOException {
+        final WireCodec.Encoder encoder = new WireCodec.Encoder();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        encoder.write(new Standings(new String[] { "p1", "p2", "p3" }), bytes);
+        encoder.write(new WeatherNotification(Arrays.asList(Weather.DRY, Weather.RAIN, Weather.DRY)), bytes);
+        encoder.write(new HitpointNotification("p2", 3, HitpointNotification.Source.CURVE), bytes);
+        final GameState gameState = new GameState().game(new GameId().gameId("game"));
+        for (int i = 1; i <= 3; ++i) {
+            final PlayerState playerState = new PlayerState().playerId("p" + i).gear(4).hitpoints(12).stops(1);
+            playerState.setNodeId(100 + i);
+            playerState.setLeeway(5000);
+            playerState.setLapsToGo(2);
+            gameState.addPlayersItem(playerState);
+        }
+        encoder.write(gameState, bytes);
+        encoder.write(new Moves().game(new GameId().gameId("game")).moves(Arrays.asList(new ValidMove().nodeId(7).overshoot(0).braking(1), new ValidMove().nodeId(8).overshoot(1).braking(0))), bytes);
+        final List<PlayerStats> stats = new ArrayList<>();
+        for (int i = 1; i <= 3; ++i) {
+            final PlayerStats playerStats = new PlayerStats();
+            playerStats.playerId = "p" + i;
+            playerStats.id = UUID.randomUUID();
+            playerStats.position = i;
+            stats.add(playerStats);
+        }
+        encoder.write(new FinalStandings(stats, false), bytes);
+        encoder.write(new WireCodec.TrackBundle("hash", new byte[] { 1, 2, 3, 4 }), bytes);
+        encoder.write(new Kick("done"), bytes);
+        return bytes.toByteArray();
+    }
+
+    private static int decodeAll(byte[] bytes) throws IOException, ClassNotFoundException {
+        final WireCodec.Decoder decoder = new WireCodec.Decoder();
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int count = 0;
+        while (in.available() > 0) {
+            decoder.read(in);
+            ++count;
+        }
+        return count;
+    }
+
+    @Test
+    public void decodesMessages() throws Exception {
+        assertEquals(8, decodeAll(encodeMessages()));
+    }
+
+    @Test
+    public void rejectsCorruptedMessages() throws Exception {
+        final byte[] original = encodeMessages();
+        final Random random = new Random(1);
+        for (int round = 0; round < rounds; ++round) {
+            final byte[] bytes = original.clone();
+            for (int i = random.nextInt(4); i >= 0; --i) {
+                bytes[random.nextInt(bytes.length)] = (byte) random.nextInt(256);
+            }
+            try {
+                decodeAll(bytes);
+            } catch (IOException | ClassNotFoundException e) {
+                // Expected
+            } catch (RuntimeException | OutOfMemoryError e) {
+                throw new AssertionError("Round " + round + " failed", e);
+            }
+        }
+    }
+}